@@ -0,0 +1,13 @@
+// AdversaryBrain.java -- a brain that can rate every piece in one go
+
+public interface AdversaryBrain extends Brain {
+ /*
+  Sets moves[i] to the best play of pieces[i] on the board, the
+  same as bestMove(board, pieces[i], limitHeight, moves[i]) would,
+  or to null if that piece cannot be played. The adversary asks
+  about all 7 pieces on one board, so work that only depends on
+  the board can be done once for all of them.
+  Move objects already in the array are reused.
+ */
+ public void bestMoves(Board board, Piece[] pieces, int limitHeight, Brain.Move[] moves);
+}
@@ -0,0 +1,70 @@
+import java.util.concurrent.Callable;
+
+/*
+ One of the adversary's questions -- where would the opponent
+ play this piece on this board -- packaged so it can be answered
+ on another thread. Each probe has its own brain and its own copy
+ of the board (brains place and undo plays on the board they are
+ given), so the 7 probes of one pickNextPiece() share nothing and
+ can all run at once.
+
+ An AnytimeBrain is limited by a number of nodes, not by time, so
+ the answer does not depend on how fast the machine is or how busy
+ the other threads are. 0 nodes means no limit.
+*/
+public final class AdversaryProbe implements Callable<Brain.Move> {
+    private static final Piece[] NO_PREVIEW = new Piece[0];
+
+    private Brain brain;
+    private Board board;
+    private SearchBudget budget;
+    private Piece piece;
+    private int limitHeight;
+    private long nodes;
+    private Brain.Move move;
+
+
+    public AdversaryProbe(Brain brain) {
+        this.brain = brain;
+        budget = new SearchBudget();
+    }
+
+
+    /*
+     Sets up the next question: a copy of the board, the piece,
+     and the node budget.
+    */
+    public void set(Board from, Piece piece, int limitHeight, long nodes) {
+        if (board == null || board.getWidth() != from.getWidth()
+                || board.getHeight() != from.getHeight()) {
+            board = new Board(from.getWidth(), from.getHeight());
+        }
+        board.copyFrom(from);
+        this.piece = piece;
+        this.limitHeight = limitHeight;
+        this.nodes = nodes;
+    }
+
+
+    /*
+     Answers the question; the move is also kept for getMove().
+    */
+    public Brain.Move call() {
+        if (brain instanceof AnytimeBrain && nodes > 0) {
+            move = ((AnytimeBrain) brain).bestMove(board, piece, NO_PREVIEW, 0, limitHeight,
+                                                   move, budget.reset(0, nodes));
+        }
+        else {
+            move = brain.bestMove(board, piece, limitHeight, move);
+        }
+        return move;
+    }
+
+
+    /*
+     The last answer, null if the piece could not be played.
+    */
+    public Brain.Move getMove() {
+        return move;
+    }
+}
@@ -0,0 +1,14 @@
+// AnytimeBrain.java -- a brain that can be told when to stop thinking
+
+public interface AnytimeBrain extends PreviewBrain {
+ /*
+  Same as PreviewBrain.bestMove(), but the search must stop once
+  the budget is exhausted and return the best move it has found so
+  far. A move is always returned if any play is possible, even when
+  the budget is already used up on entry -- the budget limits how
+  deep the brain looks, not whether it answers.
+  A null budget means no limit.
+ */
+ public Brain.Move bestMove(Board board, Piece piece, Piece[] preview, int previewCount,
+                            int limitHeight, Brain.Move move, SearchBudget budget);
+}
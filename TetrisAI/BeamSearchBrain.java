@@ -0,0 +1,258 @@
+/*
+ A beam search brain.
+
+ Instead of searching every line of play like ExpectimaxBrain,
+ only the "width" best boards are kept after each piece. Each kept
+ board is expanded with every play of the next piece (the same
+ place/clearRows/rate/undo loop as LameBrain.bestMove()), the best
+ "width" children become the next beam, and so on for every piece
+ the game has shown in its preview. The move returned is the first
+ play of the best line still in the beam at the end, so the cost
+ per piece is about width * plies * 30 ratings whatever the board.
+
+ Two lines often reach the same board -- the same two plays in
+ the other order when two pieces in a row are alike, or different
+ plays that clear the same rows. Each board is only kept once, so
+ the beam is not filled up with copies of one line.
+
+ The beams, their play lists and the heap used to pick the best
+ children are all allocated once, so a search allocates nothing.
+ Given a SearchBudget it stops adding pieces when the budget runs
+ out and answers from the last piece it finished.
+*/
+public class BeamSearchBrain implements AnytimeBrain, RatedBrain {
+    private BoardRater rater;
+    private int width;
+    private int maxPlies;
+
+    // the plays of the current piece -- the roots of every line
+    private Placements root;
+
+    // two generations of beam: boards, the root play each line
+    // started with, and the plays of the next piece from each board
+    private Board[] beam;
+    private Board[] nextBeam;
+    private int[] beamRoot;
+    private int[] nextRoot;
+    private Placements[] expand;
+    private int beamSize;
+
+    // bounded heap of the best children seen in a generation,
+    // with the worst one kept at the root so it can be replaced
+    private double[] heapScore;
+    private int[] heapParent;
+    private int[] heapPlay;
+    private long[] heapHash;
+    private int heapSize;
+
+
+    /*
+     Keeps the 8 best boards for up to 3 pieces with the default
+     ErikWurmanSinaBakhtiariBrain weights.
+    */
+    public BeamSearchBrain() {
+        this(new ErikWurmanSinaBakhtiariBrain(), 8, 3);
+    }
+
+
+    /*
+     width is the number of boards kept after each piece, maxPlies
+     the most pieces (the current one plus the preview) searched.
+    */
+    public BeamSearchBrain(BoardRater rater, int width, int maxPlies) {
+        this.rater = rater;
+        this.width = Math.max(width, 1);
+        this.maxPlies = Math.max(maxPlies, 1);
+        root = new Placements();
+        beamRoot = new int[this.width];
+        nextRoot = new int[this.width];
+        expand = new Placements[this.width];
+        for (int i = 0; i < this.width; i++) {
+            expand[i] = new Placements();
+        }
+        heapScore = new double[this.width];
+        heapParent = new int[this.width];
+        heapPlay = new int[this.width];
+        heapHash = new long[this.width];
+    }
+
+
+    public BoardRater getRater() {
+        return rater;
+    }
+
+
+    public void setRater(BoardRater rater) {
+        this.rater = rater;
+    }
+
+
+    public Brain.Move bestMove(Board board, Piece piece, int limitHeight, Brain.Move move) {
+        return bestMove(board, piece, null, 0, limitHeight, move);
+    }
+
+
+    public Brain.Move bestMove(Board board, Piece piece, Piece[] preview, int previewCount,
+                               int limitHeight, Brain.Move move) {
+        return bestMove(board, piece, preview, previewCount, limitHeight, move, null);
+    }
+
+
+    public Brain.Move bestMove(Board board, Piece piece, Piece[] preview, int previewCount,
+                               int limitHeight, Brain.Move move, SearchBudget budget) {
+        ensureBoards(board);
+        final int n = root.generate(board, piece, limitHeight, rater);
+        if (n == 0) {
+            return(null); // could not find a play at all!
+        }
+
+        // first generation: the best plays of the current piece
+        heapSize = 0;
+        for (int j = 0; j < n; j++) {
+            offer(root.score(j), root.hash(j), -1, j);
+        }
+        beamSize = 0;
+        for (int k = 0; k < heapSize; k++) {
+            beam[beamSize].copyFrom(board);
+            root.apply(beam[beamSize], heapPlay[k]);
+            beam[beamSize].commit();
+            beamRoot[beamSize] = heapPlay[k];
+            beamSize++;
+        }
+        int bestRoot = heapPlay[bestInHeap()];
+        double bestScore = heapScore[bestInHeap()];
+
+        final int plies = Math.min(maxPlies, previewCount + 1);
+        for (int ply = 1; ply < plies; ply++) {
+            // expand every board in the beam with the next piece
+            if (budget != null && budget.exhausted()) break;
+            heapSize = 0;
+            int p = 0;
+            while (p < beamSize) {
+                Placements list = expand[p];
+                int m = list.generate(beam[p], preview[ply - 1], limitHeight, rater);
+                for (int j = 0; j < m; j++) {
+                    offer(list.score(j), list.hash(j), p, j);
+                }
+                p++;
+                if (budget != null && budget.spend(m)) break;
+            }
+            // a half expanded beam is not comparable, keep the last best
+            if (p < beamSize) break;
+            if (heapSize == 0) break; // every line dies here, keep the last best
+
+            int best = bestInHeap();
+            bestRoot = beamRoot[heapParent[best]];
+            bestScore = heapScore[best];
+
+            // build the children that made the cut into the other generation
+            for (int k = 0; k < heapSize; k++) {
+                int parent = heapParent[k];
+                nextBeam[k].copyFrom(beam[parent]);
+                expand[parent].apply(nextBeam[k], heapPlay[k]);
+                nextBeam[k].commit();
+                nextRoot[k] = beamRoot[parent];
+            }
+            Board[] tb = beam;
+            beam = nextBeam;
+            nextBeam = tb;
+            int[] tr = beamRoot;
+            beamRoot = nextRoot;
+            nextRoot = tr;
+            beamSize = heapSize;
+        }
+
+        if (move==null) move = new Brain.Move();
+        move.x = root.x(bestRoot);
+        move.y = root.y(bestRoot);
+        move.piece = root.piece(bestRoot);
+        move.score = bestScore;
+        return(move);
+    }
+
+
+    /*
+     Offers a child to the heap: kept if there is room, or if it is
+     better than the worst child kept so far -- unless the heap
+     already has the same board.
+    */
+    private void offer(double score, long hash, int parent, int play) {
+        if (heapSize == width && score >= heapScore[0]) return;
+        for (int k = 0; k < heapSize; k++) {
+            // the same board always has the same score
+            if (heapHash[k] == hash && heapScore[k] == score) return;
+        }
+        if (heapSize < width) {
+            int i = heapSize++;
+            heapScore[i] = score;
+            heapParent[i] = parent;
+            heapPlay[i] = play;
+            heapHash[i] = hash;
+            // sift up while worse than the parent node
+            while (i > 0) {
+                int up = (i - 1) / 2;
+                if (heapScore[up] >= heapScore[i]) break;
+                swap(i, up);
+                i = up;
+            }
+        }
+        else {
+            heapScore[0] = score;
+            heapParent[0] = parent;
+            heapPlay[0] = play;
+            heapHash[0] = hash;
+            // sift down while better than a child node
+            int i = 0;
+            while (true) {
+                int c = 2 * i + 1;
+                if (c >= heapSize) break;
+                if (c + 1 < heapSize && heapScore[c + 1] > heapScore[c]) c++;
+                if (heapScore[i] >= heapScore[c]) break;
+                swap(i, c);
+                i = c;
+            }
+        }
+    }
+
+
+    /*
+     Returns the heap slot holding the best (lowest) score.
+     The heap only orders the worst, so this is a scan.
+    */
+    private int bestInHeap() {
+        int best = 0;
+        for (int k = 1; k < heapSize; k++) {
+            if (heapScore[k] < heapScore[best]) best = k;
+        }
+        return best;
+    }
+
+
+    private void swap(int a, int b) {
+        double s = heapScore[a];
+        heapScore[a] = heapScore[b];
+        heapScore[b] = s;
+        int t = heapParent[a];
+        heapParent[a] = heapParent[b];
+        heapParent[b] = t;
+        t = heapPlay[a];
+        heapPlay[a] = heapPlay[b];
+        heapPlay[b] = t;
+        long h = heapHash[a];
+        heapHash[a] = heapHash[b];
+        heapHash[b] = h;
+    }
+
+
+    private void ensureBoards(Board board) {
+        if (beam == null || beam[0].getWidth() != board.getWidth()
+                || beam[0].getHeight() != board.getHeight()) {
+            beam = new Board[width];
+            nextBeam = new Board[width];
+            for (int i = 0; i < width; i++) {
+                beam[i] = new Board(board.getWidth(), board.getHeight());
+                nextBeam[i] = new Board(board.getWidth(), board.getHeight());
+            }
+        }
+    }
+}
@@ -24,15 +24,19 @@ public final class Board  {
     private boolean[][] grid;
     private int widths[];
     private int heights[];
+    private long[] colBits; // bit y of colBits[x] is set when grid[x][y] is filled
     private boolean committed;
     
     // backup data structures
     private boolean[][] bGrid;
     private int[] bWidths;
     private int[] bHeights;
+    private long[] bColBits;
     private int bMaxHeight;
         
-    private boolean DEBUG = true;
+    // sanityCheck() re-scans the whole grid on every place/undo,
+    // which dominates the cost of a search -- turn on to debug
+    private static final boolean DEBUG = false;
     private static final int HEIGHT = 2;
     
     
@@ -43,6 +47,9 @@ public final class Board  {
     public Board(int aWidth, int aHeight) {
         width = aWidth;
         height = aHeight+HEIGHT;
+        if (height > 64) {
+            throw new RuntimeException("Board too tall "+aHeight);
+        }
 
         grid = new boolean[width][height];
         widths = new int[height];
@@ -50,6 +57,8 @@ public final class Board  {
         bGrid = new boolean[width][height];
         bWidths = new int[height];
         bHeights = new int[width];
+        colBits = new long[width];
+        bColBits = new long[width];
         maxHeight = 0;
         bMaxHeight = 0;
         committed = true;
@@ -108,6 +117,10 @@ public final class Board  {
                         throw new RuntimeException("Maxheight exception "
                                     +maxHeight+" "+j+" "+heights[j]); 
                     }
+                    if (grid[j][i] != ((colBits[j] & (1L << i)) != 0)) {
+                        throw new RuntimeException("bad column bits "
+                                    +j+" "+i);
+                    }
                     if (grid[j][i]) {
                         count++;
                         if (i > heights[j]) {
@@ -154,6 +167,69 @@ public final class Board  {
     }
     
     
+    /*
+     Returns the filled blocks of the given column as a bit mask --
+     bit y is set when getGrid(x, y) is true. Lets brains count
+     blocks and holes with Long.bitCount() instead of looping
+     over the grid.
+    */
+    public long getColumnBits(int x) {
+        return colBits[x];
+    }
+
+
+    /*
+     Returns a 64 bit hash of the blocks in the board, for
+     transposition tables and caches. Boards with the same blocks
+     always hash the same; different boards almost never do.
+     O(width) -- it only mixes the column bit masks.
+    */
+    public long hashKey() {
+        long h = width;
+        for (int i = 0; i < width; i++) {
+            h = (h ^ colBits[i]) * 0x9E3779B97F4A7C15L;
+            h ^= (h >>> 31);
+        }
+        return finish(h);
+    }
+
+
+    /*
+     Returns the hashKey() the board would have if it were
+     flipped left to right.
+    */
+    public long mirrorHashKey() {
+        long h = width;
+        for (int i = width - 1; i >= 0; i--) {
+            h = (h ^ colBits[i]) * 0x9E3779B97F4A7C15L;
+            h ^= (h >>> 31);
+        }
+        return finish(h);
+    }
+
+
+    /*
+     Returns the same key for a board and its mirror image -- the
+     smaller of hashKey() and mirrorHashKey(). Mirroring maps the
+     7 pieces onto each other (L and J swap, so do the two S
+     shapes, the rest are symmetric), so anything that only
+     depends on the blocks and not on which side they are on, like
+     the ErikWurmanSinaBakhtiariBrain features or the average over
+     all 7 next pieces, is the same for both and can be cached once.
+    */
+    public long canonicalKey() {
+        return Math.min(hashKey(), mirrorHashKey());
+    }
+
+
+    private static long finish(long h) {
+        h ^= (h >>> 33);
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= (h >>> 33);
+        return h;
+    }
+
+
     /*
      Returns the number of filled blocks in
      the given row.
@@ -194,6 +270,7 @@ public final class Board  {
      An undo() will remove the bad placement.
     */
     public int place(Piece piece, int x, int y) {
+        if (Metrics.ENABLED) Metrics.PLACES.increment();
         if (committed) {
             if (x < 0 || x + piece.getWidth() > width || y < 0 || y >= height) {
                 return PLACE_OUT_BOUNDS;
@@ -203,6 +280,7 @@ public final class Board  {
             bMaxHeight = maxHeight;
             System.arraycopy(heights, 0, bHeights, 0, width);
             System.arraycopy(widths, 0, bWidths, 0, height);
+            System.arraycopy(colBits, 0, bColBits, 0, width);
             for (int i = 0; i < width; i++) {
                 System.arraycopy(grid[i], 0, bGrid[i], 0, height);
             }
@@ -217,6 +295,7 @@ public final class Board  {
                     return PLACE_BAD;
                 }
                 grid[newx][newy] = true;
+                colBits[newx] |= 1L << newy;
                 widths[newy] += 1;
                 if (widths[newy] == width) {
                     ret = PLACE_ROW_FILLED;
@@ -248,9 +327,11 @@ public final class Board  {
     public boolean clearRows() {
         committed = false;
         int rowsToClear = 0;
+        long cleared = 0;
         for (int i = 0; i < maxHeight; i++) {
             if (widths[i] == width) {
                 rowsToClear++;
+                cleared |= 1L << i;
             } else if (rowsToClear > 0) {
                 // move this row down specified amount
                 for (int j = 0; j < width; j++)
@@ -264,6 +345,16 @@ public final class Board  {
             for (int j = 0; j < width; j++)
                 grid[j][i] = false;
         }
+        // squeeze the cleared rows out of the column bits,
+        // top row first so the lower row numbers stay valid
+        for (int i = maxHeight - 1; i >= 0 && cleared != 0; i--) {
+            if ((cleared & (1L << i)) != 0) {
+                final long below = (1L << i) - 1;
+                for (int j = 0; j < width; j++)
+                    colBits[j] = (colBits[j] & below) | ((colBits[j] >>> 1) & ~below);
+                cleared &= ~(1L << i);
+            }
+        }
         // watch out for "holes"
         for (int i = 0; i < width; i++) {
             heights[i] = heights[i] - rowsToClear;
@@ -274,6 +365,10 @@ public final class Board  {
         maxHeight = maxHeight - rowsToClear;
         sanityCheck();
         if (rowsToClear > 0){
+            if (Metrics.ENABLED) {
+                Metrics.CLEARS.increment();
+                Metrics.ROWS_CLEARED.add(rowsToClear);
+            }
             return true;
         }
         return false;
@@ -289,6 +384,7 @@ public final class Board  {
      See the overview docs.
     */
     public void undo() {
+        if (Metrics.ENABLED) Metrics.UNDOS.increment();
         if (!committed) {
             committed = true;
             // copy things back
@@ -299,6 +395,9 @@ public final class Board  {
             temp = heights;
             heights = bHeights;
             bHeights = temp;
+            long[] temp3 = colBits;
+            colBits = bColBits;
+            bColBits = temp3;
             for (int i = 0; i < width; i++) {
                 boolean[] temp2 = grid[i];
                 grid[i] = bGrid[i];
@@ -318,6 +417,44 @@ public final class Board  {
         committed = true;
         sanityCheck();
     }
-}
 
 
+    /*
+     Makes this board a copy of the current state of the other board,
+     which must have the same width and height. The copy ends up
+     in the committed state. Used by search brains that need to
+     look more than one piece ahead, since undo() only goes back
+     a single place().
+    */
+    public void copyFrom(Board other) {
+        if (other.width != width || other.height != height) {
+            throw new RuntimeException("Board size mismatch "
+                        +other.width+"x"+other.height+" "+width+"x"+height);
+        }
+        maxHeight = other.maxHeight;
+        System.arraycopy(other.heights, 0, heights, 0, width);
+        System.arraycopy(other.widths, 0, widths, 0, height);
+        System.arraycopy(other.colBits, 0, colBits, 0, width);
+        for (int i = 0; i < width; i++) {
+            System.arraycopy(other.grid[i], 0, grid[i], 0, height);
+        }
+        committed = true;
+    }
+
+
+    /*
+     Empties the board in place, as if it had just been made,
+     and leaves it committed. Lets a game start over without
+     allocating a new board.
+    */
+    public void clear() {
+        maxHeight = 0;
+        for (int i = 0; i < width; i++) {
+            heights[i] = 0;
+            colBits[i] = 0;
+            java.util.Arrays.fill(grid[i], false);
+        }
+        java.util.Arrays.fill(widths, 0);
+        committed = true;
+    }
+}
@@ -0,0 +1,11 @@
+// BoardRater.java -- anything that can score a board for a brain
+
+public interface BoardRater {
+ /*
+  Given a board, produce a number that rates
+  that board position -- larger numbers for worse boards.
+  The board may be in the uncommitted state (a piece has just
+  been placed and rows cleared) but must not be changed.
+ */
+ public double rateBoard(Board board);
+}
@@ -0,0 +1,291 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/*
+ The part of JBrainNoGraphics and JBrainTetris that asks the
+ brains: where the player's brain plays each piece, which piece
+ the adversary deals, and the limits on both. Each game keeps
+ one, and hands it the board and preview with every question,
+ since a new game may replace them.
+
+ With a shared adversary the adversary asks the player's own
+ brain, and the move that brain found for the piece the adversary
+ deals is kept for takeForeseen(), so the player does not search
+ the same board again.
+*/
+public final class BrainDriver {
+    private final Piece[] pieces;
+    private final int limitHeight;
+
+    private Piece[] upcoming = new Piece[0]; // preview handed to a PreviewBrain
+    private SearchBudget thinking = new SearchBudget(); // reused for every AnytimeBrain call
+    private Brain.Move[] adversaryMoves; // the adversary's probe of each piece
+    private boolean sharedAdversary = false; // the adversary asks the player's brain
+    private Brain.Move foreseen = new Brain.Move(); // the player's move the adversary already found
+    private Piece foreseenPiece; // ... for this piece, null if none
+    private long foreseenKey; // ... on the board with this hashKey()
+    private long thinkNodes = 0; // nodes an AnytimeBrain may search per piece, 0 for no limit
+    private long adversaryNodes = 0; // nodes per adversary probe, 0 to share the think time instead
+    private int adversaryPieces = 500; // pieces per game the adversary always plays
+    private List<AdversaryProbe> probes; // one per piece for a parallel adversary, else null
+    private ExecutorService probeThreads;
+    private Brain probeBrain; // the opponent the probes stand in for
+
+
+    public BrainDriver(Piece[] pieces, int limitHeight) {
+        this.pieces = pieces;
+        this.limitHeight = limitHeight;
+        adversaryMoves = new Brain.Move[pieces.length];
+    }
+
+
+    /*
+     Asks a brain where to play the piece on the board.
+     A PreviewBrain is shown the pieces in preview (none if null),
+     and an AnytimeBrain is stopped after millis or after searching
+     nodes, whichever comes first (no limit if 0).
+     Other brains just get the plain Brain.bestMove() call.
+    */
+    public Brain.Move ask(Brain brain, Board board, Piece piece, PieceQueue preview,
+                          long millis, long nodes, Brain.Move move) {
+        if (!(brain instanceof PreviewBrain)) {
+            return brain.bestMove(board, piece, limitHeight, move);
+        }
+        int n = 0;
+        if (preview != null) {
+            if (upcoming.length < preview.size()) {
+                upcoming = new Piece[preview.size()];
+            }
+            n = preview.copyInto(upcoming);
+        }
+        if (brain instanceof AnytimeBrain && (millis > 0 || nodes > 0)) {
+            thinking.reset(millis, nodes);
+            return ((AnytimeBrain) brain).bestMove(board, piece, upcoming, n, limitHeight, move, thinking);
+        }
+        return ((PreviewBrain) brain).bestMove(board, piece, upcoming, n, limitHeight, move);
+    }
+
+
+    /*
+     Asks the player's brain where to play the piece, shown the
+     preview and given millis and the setThinkNodes() limit.
+    */
+    public Brain.Move askPlayer(Brain brain, Board board, Piece piece, PieceQueue preview,
+                                long millis, Brain.Move move) {
+        return ask(brain, board, piece, preview, millis, thinkNodes, move);
+    }
+
+
+    /*
+     Returns the move the adversary already found for the piece on
+     this very board, or null if it did not. Either way it is
+     forgotten, so it is only ever used once.
+    */
+    public Brain.Move takeForeseen(Board board, Piece piece) {
+        boolean known = foreseenPiece != null && foreseenPiece == piece
+            && board.hashKey() == foreseenKey;
+        foreseenPiece = null;
+        return known ? foreseen : null;
+    }
+
+
+    /*
+     Forgets any foreseen move, e.g. when a new game starts.
+    */
+    public void forgetForeseen() {
+        foreseenPiece = null;
+    }
+
+
+    /*
+     Whether the adversary deals the next piece: r is a random
+     number in 0..99 and percent the adversary setting. It always
+     plays for the first adversaryPieces pieces of a game, then
+     only 80% of the time so games still end. Counted in pieces,
+     not seconds, so a game does not depend on how fast the
+     machine is.
+    */
+    public boolean adversaryPlays(int r, int percent, int gamePieces) {
+        return r < percent && (gamePieces <= adversaryPieces || r < 80);
+    }
+
+
+    /*
+     The adversary's pick: asks its brain (the player's if shared,
+     else opponent) for the best play of every piece on the board,
+     and returns the index of the piece whose best play scores
+     worst. The board must be committed. thinkMillis is the
+     player's time per piece; previewSize is the game's preview.
+    */
+    public int adversaryPick(Board board, Brain player, Brain opponent, long thinkMillis, int previewSize) {
+        double best = 0.0;
+        Brain adversaryBrain = sharedAdversary ? player : opponent;
+        // the adversary gets adversaryNodes per piece if set, else
+        // it shares one piece's thinking time among all of them
+        long nodes = adversaryNodes;
+        long millis = (nodes == 0 && thinkMillis > 0) ? Math.max(thinkMillis / pieces.length, 1) : 0;
+        askAllPieces(adversaryBrain, board, millis, nodes);
+        int pieceNum = 0;
+        for (int i = 1; i < pieces.length; i++) {
+            if (adversaryMoves[i] != null && adversaryMoves[i].score > best) {
+                pieceNum = i;
+                best = adversaryMoves[i].score;
+            }
+        }
+
+        // The player's brain already worked out where this piece
+        // goes -- keep that for takeForeseen(), if the piece is played
+        // straight away and the brain would not be told any more
+        // (a preview or a longer think) when asked again.
+        Brain.Move mov = adversaryMoves[pieceNum];
+        if (sharedAdversary && mov != null && previewSize == 0
+                && (!(adversaryBrain instanceof AnytimeBrain)
+                    || (millis == 0 && thinkMillis == 0 && nodes == thinkNodes))) {
+            foreseen.x = mov.x;
+            foreseen.y = mov.y;
+            foreseen.piece = mov.piece;
+            foreseen.score = mov.score;
+            foreseenPiece = pieces[pieceNum];
+            foreseenKey = board.hashKey();
+        }
+        return pieceNum;
+    }
+
+
+    /*
+     Asks the brain for the best play of every piece on the board,
+     filling adversaryMoves -- through the probes if it is the
+     parallel adversary, in one call if it is an AdversaryBrain,
+     else one ask() per piece.
+    */
+    private void askAllPieces(Brain brain, Board board, long millis, long nodes) {
+        if (probes != null && brain == probeBrain) {
+            askProbes(board, nodes);
+            return;
+        }
+        if (brain instanceof AdversaryBrain) {
+            ((AdversaryBrain) brain).bestMoves(board, pieces, limitHeight, adversaryMoves);
+            return;
+        }
+        for (int i = 0; i < pieces.length; i++) {
+            adversaryMoves[i] = ask(brain, board, pieces[i], null, millis, nodes, adversaryMoves[i]);
+        }
+    }
+
+
+    /*
+     Runs the parallel adversary's probes, one piece each, and
+     waits for all of them. The answers go into adversaryMoves in
+     piece order, so which thread finishes first makes no difference.
+    */
+    private void askProbes(Board board, long nodes) {
+        for (int i = 0; i < pieces.length; i++) {
+            probes.get(i).set(board, pieces[i], limitHeight, nodes);
+        }
+        try {
+            for (Future<Brain.Move> f : probeThreads.invokeAll(probes)) {
+                f.get();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted during adversary search");
+        }
+        catch (ExecutionException e) {
+            throw new RuntimeException("Adversary probe failed", e.getCause());
+        }
+        for (int i = 0; i < pieces.length; i++) {
+            adversaryMoves[i] = probes.get(i).getMove();
+        }
+    }
+
+
+    /*
+     Has the adversary try the pieces at the same time, piece i
+     with opponents[i] on its own thread, whenever it is asked
+     with opponents[0] as its brain. The brains must be separate
+     objects. null goes back to one brain on the game's thread.
+    */
+    public void setParallelAdversary(Brain[] opponents) {
+        if (probeThreads != null) {
+            probeThreads.shutdown();
+            probeThreads = null;
+            probes = null;
+            probeBrain = null;
+        }
+        if (opponents == null) return;
+        if (opponents.length != pieces.length) {
+            throw new RuntimeException("Need one adversary brain per piece, not "+opponents.length);
+        }
+        probes = new ArrayList<AdversaryProbe>();
+        for (int i = 0; i < opponents.length; i++) {
+            probes.add(new AdversaryProbe(opponents[i]));
+        }
+        probeBrain = opponents[0];
+        probeThreads = Executors.newFixedThreadPool(opponents.length, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Adversary");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+
+    /*
+     Limits an AnytimeBrain to searching a number of nodes per piece,
+     0 for no limit.
+    */
+    public void setThinkNodes(long nodes) {
+        thinkNodes = Math.max(nodes, 0);
+    }
+
+
+    /*
+     Limits an AnytimeBrain adversary to a number of nodes per piece
+     it tries, instead of a share of the player's thinking time. 0
+     goes back to time.
+    */
+    public void setAdversaryNodes(long nodes) {
+        adversaryNodes = Math.max(nodes, 0);
+    }
+
+
+    public void setAdversaryPieces(int n) {
+        adversaryPieces = n;
+    }
+
+
+    public void setSharedAdversary(boolean shared) {
+        sharedAdversary = shared;
+        foreseenPiece = null;
+    }
+
+
+    /*
+     Puts an EvaluationCache of the given number of entries in front
+     of the brain's rater, or takes it away again for 0 entries.
+     Returns the cache, or null if there is none or the brain does
+     not take a rater (is not a RatedBrain).
+    */
+    public static EvaluationCache cacheRatings(Brain brain, int capacity, boolean mirror) {
+        if (!(brain instanceof RatedBrain)) return null;
+        RatedBrain rated = (RatedBrain) brain;
+        BoardRater rater = rated.getRater();
+        if (rater instanceof EvaluationCache) {
+            rater = ((EvaluationCache) rater).getRater();
+        }
+        if (capacity <= 0) {
+            rated.setRater(rater);
+            return null;
+        }
+        EvaluationCache cache = new EvaluationCache(rater, capacity, mirror);
+        rated.setRater(cache);
+        return cache;
+    }
+}
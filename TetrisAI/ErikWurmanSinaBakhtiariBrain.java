@@ -18,11 +18,19 @@ Features to add (maybe):
  play with the lowest score. Undo() is used to back-out
  each play before trying the next. To experiment with writing your own
  brain -- just subclass off LameBrain and override rateBoard().
+
+ Threads: the rateBoard() methods keep no state, so one instance
+ can rate boards for many threads at once (as the leaf rater of
+ MonteCarloBrain or MctsBrain). bestMove(), bestMoves() and
+ topMoves() reuse the candidate arrays below between calls, so
+ only one thread at a time may ask those of an instance.
 */
 
 import java.lang.Math;
+import java.util.Arrays;
+import java.awt.Point;
 
-public class ErikWurmanSinaBakhtiariBrain implements Brain {
+public class ErikWurmanSinaBakhtiariBrain implements AdversaryBrain, TopMovesBrain, BoardRater {
     /*
     Given a piece and a board, returns a move object that represents
     the best play for that piece, or returns null if no play is possible.
@@ -35,6 +43,22 @@ public class ErikWurmanSinaBakhtiariBrain implements Brain {
     private double r; 
     private double ah;
 
+    // bestMove()'s candidate plays, reused between calls --
+    // not safe to share between threads, see above
+    private Piece[] candPiece = new Piece[48];
+    private int[] candX = new int[48];
+    private int[] candY = new int[48];
+    private int[] candOrder = new int[48]; // try order: top << 16 | index
+    private int count;
+    private long[] clearHashes = new long[16]; // boards left by row clearing plays
+    private int clearCount;
+
+    // features of the board bestMove() was given, see rateBase()
+    private int baseHeight;
+    private int baseRoughness;
+    private int baseHoles;
+    private int baseTouching;
+
 
     public ErikWurmanSinaBakhtiariBrain(){
 
@@ -57,13 +81,208 @@ public class ErikWurmanSinaBakhtiariBrain implements Brain {
     
 
     public Brain.Move bestMove(Board board, Piece piece, int limitHeight, Brain.Move move) {
+        rateBase(board);
+        return bestDrop(board, piece, limitHeight, move);
+    }
+
+
+    /*
+    The adversary's question: the best play of each piece. The
+    features of the board are only worked out once for all of them.
+    */
+    public void bestMoves(Board board, Piece[] pieces, int limitHeight, Brain.Move[] moves) {
+        rateBase(board);
+        for (int i = 0; i < pieces.length; i++) {
+            moves[i] = bestDrop(board, pieces[i], limitHeight, moves[i]);
+        }
+    }
+
+
+    /*
+    The k best plays of the piece as PackedMove longs, found the
+    same way as bestMove() finds the best one. Once k plays are in
+    hand the k'th best is the cutoff rateBoard() has to beat.
+    */
+    public int topMoves(Board board, Piece piece, int limitHeight, long[] out, int k) {
+        if (k <= 0) return 0;
+        rateBase(board);
+        collect(board, piece, limitHeight);
+
+        int n = 0;
+        clearCount = 0;
+        for (int c = 0; c < count; c++) {
+            final int i = candOrder[c] & 0xFFFF;
+            double score = rateDrop(board, candPiece[i], candX[i], candY[i]);
+            if (score != score) { // NaN, rows fill -- play it out
+                int result = board.place(candPiece[i], candX[i], candY[i]);
+                if (result <= Board.PLACE_ROW_FILLED) {
+                    if (result == Board.PLACE_ROW_FILLED) board.clearRows();
+                    if (firstClear(board.hashKey())) {
+                        final double cutoff = (n == k) ? PackedMove.score(out[k - 1]) : 1e20;
+                        score = rateBoard(board, cutoff);
+                        if (score > cutoff) score = Double.NaN; // only a bound
+                    }
+                }
+                board.undo();
+                if (score != score) continue;
+            }
+            n = PackedMove.insert(out, n, k, PackedMove.pack(candPiece[i], candX[i], candY[i], score));
+        }
+        return n;
+    }
+
+
+    /*
+    bestMove() once rateBase() has seen the board.
+    */
+    private Brain.Move bestDrop(Board board, Piece piece, int limitHeight, Brain.Move move) {
         // Allocate a move object if necessary
         if (move==null) move = new Brain.Move();
   
+        collect(board, piece, limitHeight);
+
         double bestScore = 1e20;
-        int bestX = 0;
-        int bestY = 0;
-        Piece bestPiece = null;
+        int best = -1;
+        clearCount = 0;
+        for (int k = 0; k < count; k++) {
+            final int i = candOrder[k] & 0xFFFF;
+            double score = rateDrop(board, candPiece[i], candX[i], candY[i]);
+            if (score != score) { // NaN, rows fill -- play it out
+                int result = board.place(candPiece[i], candX[i], candY[i]);
+                if (result <= Board.PLACE_ROW_FILLED) {
+                    if (result == Board.PLACE_ROW_FILLED) board.clearRows();
+                    // different plays can clear down to the same board,
+                    // only rate the first (the others can only tie)
+                    if (firstClear(board.hashKey())) score = rateBoard(board, bestScore);
+                }
+                board.undo(); // back out that play, loop around for the next
+            }
+
+            // ties go to the play found first in rotation/column order
+            if (score<bestScore || (score==bestScore && i<best)) {
+                bestScore = score;
+                best = i;
+            }
+        }
+  
+        if (best < 0) return(null); // could not find a play at all!
+        else {
+            move.x=candX[best];
+            move.y=candY[best];
+            move.piece=candPiece[best];
+            move.score = bestScore;
+            return(move);
+        }
+    }
+
+
+    /*
+    Works out the features of the board before any play, for
+    rateDrop().
+    */
+    private void rateBase(Board board) {
+        final int width = board.getWidth();
+        baseHeight = 0;
+        baseRoughness = 0;
+        baseHoles = 0;
+        int last = board.getColumnHeight(0);
+        for (int col=0; col<width; col++){
+            final int curr = board.getColumnHeight(col);
+            baseHeight += curr;
+            baseHoles += curr - Long.bitCount(board.getColumnBits(col));
+            baseRoughness += Math.abs(curr-last);
+            last = curr;
+        }
+        baseTouching = touchingWall(board);
+    }
+
+
+    /*
+    Rates the board the play of the piece at x, y would leave,
+    without placing it. A dropped piece that fills no row only
+    raises the columns it lands on, so the features are the ones
+    rateBase() found, patched for those few columns -- the same
+    numbers rateBoard() would count after place().
+    Returns NaN if a row would fill, or the play is not a clean
+    drop onto the columns, so the caller has to place it.
+    */
+    private double rateDrop(Board board, Piece piece, int x, int y) {
+        final int width = board.getWidth();
+        final int pw = piece.getWidth();
+        final int ph = piece.getHeight();
+        if (y + ph > board.getHeight()) return Double.NaN;
+        final int[] rows = piece.getRowWidths();
+        for (int r = 0; r < ph; r++) {
+            if (board.getRowWidth(y + r) + rows[r] >= width) return Double.NaN;
+        }
+
+        final int[] skirt = piece.getSkirt();
+        final int[] top = piece.getTop();
+        int height = baseHeight;
+        int holes = baseHoles - piece.getBody().length;
+        for (int i = 0; i < pw; i++) {
+            final int old = board.getColumnHeight(x + i);
+            if (y + skirt[i] < old) return Double.NaN; // would not rest there
+            height += y + top[i] - old;
+            holes += y + top[i] - old; // less the piece's own blocks, above
+        }
+
+        // only the pairs of columns with a raised one change
+        int roughness = baseRoughness;
+        final int from = Math.max(x - 1, 0);
+        final int to = Math.min(x + pw, width - 1);
+        for (int col = from; col < to; col++) {
+            final int a = board.getColumnHeight(col);
+            final int b = board.getColumnHeight(col + 1);
+            final int na = (col >= x && col < x + pw) ? y + top[col - x] : a;
+            final int nb = (col + 1 >= x && col + 1 < x + pw) ? y + top[col + 1 - x] : b;
+            roughness += Math.abs(na - nb) - Math.abs(a - b);
+        }
+
+        int touching = baseTouching;
+        if (x == 0 || x + pw == width) {
+            final Point[] body = piece.getBody();
+            for (int j = 0; j < body.length; j++) {
+                final int col = x + body[j].x;
+                if (col == 0 || col == width - 1) touching++;
+            }
+        }
+
+        final int max = Math.max(board.getMaxHeight(), y + ph);
+        if (Metrics.ENABLED) Metrics.EVALUATIONS.increment();
+
+        // the same sum as rateBoard(), so the two agree exactly
+        return (mh*max + tw*touching + h*holes + r*roughness + ah*height);
+    }
+
+
+    /*
+    Remembers the hash of a board a row clearing play left, and
+    returns false if an earlier play already left the same board.
+    */
+    private boolean firstClear(long hash) {
+        for (int k = 0; k < clearCount; k++) {
+            if (clearHashes[k] == hash) return false;
+        }
+        if (clearCount == clearHashes.length) {
+            long[] h2 = new long[clearCount * 2];
+            System.arraycopy(clearHashes, 0, h2, 0, clearCount);
+            clearHashes = h2;
+        }
+        clearHashes[clearCount++] = hash;
+        return true;
+    }
+
+
+    /*
+    Collects the plays of the piece into the candidate arrays
+    without placing them, sorted so they are tried lowest landing
+    first -- low plays usually rate best, and a good early
+    incumbent lets rateBoard() give up sooner. Plays that fill no
+    row are not placed at all, see rateDrop().
+    */
+    private void collect(Board board, Piece piece, int limitHeight) {
+        count = 0;
         Piece current = piece;
   
         // loop through all the rotations
@@ -75,53 +294,49 @@ public class ErikWurmanSinaBakhtiariBrain implements Brain {
             for (int x = 0; x<xBound; x++) {
                 int y = board.dropHeight(current, x);
                 if (y<yBound) { // piece does not stick up too far
-                    int result = board.place(current, x, y);
-                    if (result <= Board.PLACE_ROW_FILLED) {
-                        if (result == Board.PLACE_ROW_FILLED) board.clearRows();
-      
-                        double score = rateBoard(board);
-      
-                        if (score<bestScore) {
-                            bestScore = score;
-                            bestX = x;
-                            bestY = y;
-                            bestPiece = current;
-                        }
-                    }
-     
-                    board.undo(); // back out that play, loop around for the next
+                    addCandidate(current, x, y, y + current.getHeight());
                 }
             }
    
             current = current.nextRotation();
             if (current == piece) break; // break if back to original rotation
         }
-  
-        if (bestPiece == null) return(null); // could not find a play at all!
-        else {
-            move.x=bestX;
-            move.y=bestY;
-            move.piece=bestPiece;
-            move.score = bestScore;
-            return(move);
+        Arrays.sort(candOrder, 0, count);
+        if (Metrics.ENABLED) Metrics.CANDIDATES.add(count);
+    }
+
+
+    private void addCandidate(Piece piece, int x, int y, int top) {
+        if (count == candX.length) {
+            int n = count * 2;
+            Piece[] p2 = new Piece[n];
+            int[] x2 = new int[n];
+            int[] y2 = new int[n];
+            System.arraycopy(candPiece, 0, p2, 0, count);
+            System.arraycopy(candX, 0, x2, 0, count);
+            System.arraycopy(candY, 0, y2, 0, count);
+            candPiece = p2;
+            candX = x2;
+            candY = y2;
+            candOrder = new int[n];
         }
+        candPiece[count] = piece;
+        candX[count] = x;
+        candY[count] = y;
+        // sorting on top then index keeps generation order among equals
+        candOrder[count] = (top << 16) | count;
+        count++;
     }
 
+
     /*
     Counts the number of pieces touching both the walls.
     */
     public int touchingWall(Board board){
         final int width = board.getWidth();
-        final int max = board.getMaxHeight();
-        int touching = 0;
-        for (int col = 0; col<width; col++){
-            if (col == 0 || col == (width-1)){
-                for (int i=0; i<max; i++){
-                    if (board.getGrid(col, i)){
-                        touching++;
-                    }
-                }
-            }
+        int touching = Long.bitCount(board.getColumnBits(0));
+        if (width > 1){
+            touching += Long.bitCount(board.getColumnBits(width-1));
         }
         return touching;
     }
@@ -142,18 +357,13 @@ public class ErikWurmanSinaBakhtiariBrain implements Brain {
 
     /*
     Counts the total number of holes on the board
+    (the empty squares under the top block of each column)
     */
     public int holes(Board board){
         final int width = board.getWidth();
         int holes = 0;
         for (int col=0; col<width; col++){
-            int row = board.getColumnHeight(col) - 2;
-            while (row>=0){
-                if (!board.getGrid(col,row)){
-                    holes += 1; //maybe make this 2
-                }
-                row--;
-            }
+            holes += board.getColumnHeight(col) - Long.bitCount(board.getColumnBits(col));
         }
         return holes;
     }
@@ -171,16 +381,32 @@ public class ErikWurmanSinaBakhtiariBrain implements Brain {
     }
 
 
+    /*
+    Rates the board with all the features in a single pass over
+    the columns -- the same numbers as holes(), roughness(),
+    aggregateHeight() and touchingWall(), but each column height
+    is only looked up once. Search brains call this at every leaf.
+    */
     public double rateBoard(Board board) {
+        if (Metrics.ENABLED) Metrics.EVALUATIONS.increment();
         final int width = board.getWidth();
 
         final int max = board.getMaxHeight();        
-        int holes = holes(board);
-        int roughness = roughness(board);
+        int holes = 0;
+        int roughness = 0;
         //int roughness = surfaceArea(board);
-        int height = aggregateHeight(board);
+        int height = 0;
         int touching = touchingWall(board);
 
+        int last = board.getColumnHeight(0);
+        for (int col=0; col<width; col++){
+            final int curr = board.getColumnHeight(col);
+            height += curr;
+            holes += curr - Long.bitCount(board.getColumnBits(col));
+            roughness += Math.abs(curr-last);
+            last = curr;
+        }
+
         //int holes = countHolesByEriksDefinition(board);
         //int blockades = BlockadesBySinasDefinition(board);
         //int blocks = countBlocks(board);
@@ -192,6 +418,70 @@ public class ErikWurmanSinaBakhtiariBrain implements Brain {
     }
  
  
+    /*
+    Rates the board like rateBoard(board), but gives up as soon as
+    the board is sure to score above cutoff. The cheap features go
+    first (max height and touching wall are O(1), then one pass for
+    the heights and roughness, holes last), and after each step the
+    features still to come are bounded by their lowest possible
+    weighted value -- the low end of the feature's range for a
+    positive weight, the high end for a negative one. If the score
+    so far plus those bounds is above cutoff, that lower bound is
+    returned instead of the score.
+    So the result is exact whenever it is <= cutoff, and > cutoff
+    otherwise. The bounds are summed in the same order as the
+    score, a bound in place of each feature still to come, so
+    rounding can never take a bound above the exact score.
+    */
+    public double rateBoard(Board board, double cutoff) {
+        if (Metrics.ENABLED) Metrics.EVALUATIONS.increment();
+        final int width = board.getWidth();
+
+        // O(1) features: the rest is bounded by the max height
+        final int max = board.getMaxHeight();
+        final int touching = touchingWall(board);
+        double bound = mh*max + tw*touching
+            + lowest(h, 0, width*Math.max(max-1, 0))
+            + lowest(r, 0, (width-1)*max)
+            + lowest(ah, max, width*max);
+        if (bound > cutoff) return bound;
+
+        // heights and roughness
+        int height = 0;
+        int roughness = 0;
+        int filled = 0; // columns with anything in them
+        int last = board.getColumnHeight(0);
+        for (int col=0; col<width; col++){
+            final int curr = board.getColumnHeight(col);
+            height += curr;
+            roughness += Math.abs(curr-last);
+            if (curr > 0) filled++;
+            last = curr;
+        }
+        // each column's top block is not a hole
+        bound = mh*max + tw*touching + lowest(h, 0, height - filled)
+            + r*roughness + ah*height;
+        if (bound > cutoff) return bound;
+
+        int holes = 0;
+        for (int col=0; col<width; col++){
+            holes += board.getColumnHeight(col) - Long.bitCount(board.getColumnBits(col));
+        }
+
+        // the same sum as rateBoard(board), so the two agree exactly
+        return (mh*max + tw*touching + h*holes + r*roughness + ah*height);
+    }
+
+
+    /*
+    The lowest value weight*feature can take for a feature
+    between lo and hi.
+    */
+    private static double lowest(double weight, int lo, int hi) {
+        return (weight >= 0) ? weight*lo : weight*hi;
+    }
+ 
+ 
     /*
     A simple brain function.
     Given a board, produce a number that rates
@@ -0,0 +1,194 @@
+/*
+ A bounded cache of board ratings, for putting in front of a
+ BoardRater that is slow compared to hashing a board.
+
+ It is itself a BoardRater, so any RatedBrain (LameBrain,
+ LookaheadBrain, ExpectimaxBrain, BeamSearchBrain, MinimaxBrain)
+ can be given one with setRater(), and several brains -- the
+ player and the adversary, say -- can share one and reuse each
+ other's ratings. JBrainNoGraphics.cacheRatings() and
+ JBrainTetris.cacheRatings() put one in front of the game's brain.
+ The cache is not thread safe: give each thread its own. So it
+ is no use to MctsBrain or MonteCarloBrain, which rate on many
+ threads at once, nor to ErikWurmanSinaBakhtiariBrain.bestMove(),
+ which works most ratings out from the board before the drop
+ without ever making the board a cache would look up.
+
+ Every entry stores the column bits of its whole board next to
+ the rating, and a lookup compares them all, so a hash collision
+ is a miss, never a wrong rating. Built with mirror set, a board
+ and its mirror image share an entry (Board.canonicalKey()) --
+ only for raters that score both the same.
+
+ Entries live in fixed parallel primitive arrays chained off a
+ hash index. When it is full the CLOCK hand picks the entry to
+ drop: it sweeps the entries, clearing their "used" bit, and
+ evicts the first one that has not been used since its last pass.
+*/
+public final class EvaluationCache implements BoardRater {
+    private BoardRater rater;
+    private boolean mirror;
+    private int capacity;
+    private int width;         // of the boards cached, 0 until the first
+
+    private int[] heads;       // hash index: first entry in each chain, -1 for none
+    private int mask;
+    private long[] hashes;
+    private long[] columns;    // width longs per entry
+    private double[] values;
+    private int[] next;        // next entry in the same chain
+    private boolean[] used;    // the CLOCK bit
+    private int size;
+    private int hand;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+
+    public EvaluationCache(BoardRater rater, int capacity) {
+        this(rater, capacity, false);
+    }
+
+
+    public EvaluationCache(BoardRater rater, int capacity, boolean mirror) {
+        this.rater = rater;
+        this.capacity = Math.max(capacity, 1);
+        this.mirror = mirror;
+        int n = 1;
+        while (n < 2 * this.capacity) n <<= 1;
+        heads = new int[n];
+        mask = n - 1;
+        hashes = new long[this.capacity];
+        values = new double[this.capacity];
+        next = new int[this.capacity];
+        used = new boolean[this.capacity];
+        columns = new long[0];
+        clear();
+    }
+
+
+    /*
+     Returns the cached rating of the board, asking the rater
+     (and remembering the answer) on a miss.
+    */
+    public double rateBoard(Board board) {
+        if (board.getWidth() != width) {
+            width = board.getWidth();
+            columns = new long[capacity * width];
+            clear();
+        }
+
+        long hash = board.hashKey();
+        boolean reversed = false;
+        if (mirror) {
+            long other = board.mirrorHashKey();
+            if (other < hash) {
+                hash = other;
+                reversed = true;
+            }
+        }
+
+        for (int e = heads[bucket(hash)]; e >= 0; e = next[e]) {
+            if (hashes[e] == hash && sameBoard(e, board, reversed)) {
+                hits++;
+                used[e] = true;
+                return values[e];
+            }
+        }
+
+        misses++;
+        double value = rater.rateBoard(board);
+        int e = (size < capacity) ? size++ : evict();
+        hashes[e] = hash;
+        values[e] = value;
+        used[e] = false;
+        final int base = e * width;
+        for (int x = 0; x < width; x++) {
+            columns[base + x] = board.getColumnBits(reversed ? width - 1 - x : x);
+        }
+        int b = bucket(hash);
+        next[e] = heads[b];
+        heads[b] = e;
+        return value;
+    }
+
+
+    /*
+     Empties the cache. The counters are kept.
+    */
+    public void clear() {
+        for (int i = 0; i < heads.length; i++) {
+            heads[i] = -1;
+        }
+        size = 0;
+        hand = 0;
+    }
+
+
+    /*
+     The rater behind the cache.
+    */
+    public BoardRater getRater() {
+        return rater;
+    }
+
+
+    public int size() {
+        return size;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+
+    private int bucket(long hash) {
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+
+    private boolean sameBoard(int e, Board board, boolean reversed) {
+        final int base = e * width;
+        for (int x = 0; x < width; x++) {
+            if (columns[base + x] != board.getColumnBits(reversed ? width - 1 - x : x)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /*
+     Moves the CLOCK hand to the first entry not used since the
+     hand last passed it, unlinks that entry and returns it.
+    */
+    private int evict() {
+        while (used[hand]) {
+            used[hand] = false;
+            hand = (hand + 1 == capacity) ? 0 : hand + 1;
+        }
+        final int e = hand;
+        hand = (hand + 1 == capacity) ? 0 : hand + 1;
+
+        final int b = bucket(hashes[e]);
+        if (heads[b] == e) {
+            heads[b] = next[e];
+        }
+        else {
+            int prev = heads[b];
+            while (next[prev] != e) prev = next[prev];
+            next[prev] = next[e];
+        }
+        evictions++;
+        return e;
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ An expectimax brain.
+
+ Every play of the current piece is scored by looking "depth"
+ more pieces ahead. Pieces the game has shown in its preview are
+ played as they are; after those, each of the 7 pieces is equally
+ likely, so the score is the average over the 7 of the best play
+ of that piece. At the bottom the board is rated by the leaf rater,
+ an ErikWurmanSinaBakhtiariBrain unless another is given.
+
+ The averaged (chance) scores are kept in a transposition table
+ keyed on the board hash and the depth left, so a board reached
+ again -- by another order of plays, or on the next piece -- is
+ not searched twice. A board and its mirror image average to the
+ same score when the rater does not care about left and right,
+ so by default they share an entry (Board.canonicalKey()).
+ Depth 1 is about 7 times the work of a plain one ply brain,
+ depth 2 about 200 times.
+
+ Given a SearchBudget it deepens one piece at a time, best play of
+ the last depth first, and answers with the deepest search that
+ finished before the budget ran out.
+*/
+public class ExpectimaxBrain implements AnytimeBrain, RatedBrain {
+    // the score of a board where a piece cannot be played at all
+    private static final double LOST = 1e20;
+
+    private BoardRater rater;
+    private int maxDepth;
+    private int depth;        // depth of the search in progress
+    private SearchBudget budget;
+    private boolean aborted;  // the budget ran out mid search
+    private TranspositionTable table;
+    private int tableLimit;
+    private boolean mirror;   // key the table on Board.canonicalKey()
+    private Piece[] pieces;
+
+    // one board and one list of plays per level, reused
+    private Board[] boards;
+    private Placements[] plays;
+
+
+    /*
+     Looks one unknown piece ahead with the default
+     ErikWurmanSinaBakhtiariBrain weights.
+    */
+    public ExpectimaxBrain() {
+        this(new ErikWurmanSinaBakhtiariBrain(), 1);
+    }
+
+
+    public ExpectimaxBrain(BoardRater rater, int depth) {
+        this.rater = rater;
+        maxDepth = depth;
+        table = new TranspositionTable(20);
+        tableLimit = -1;
+        mirror = true;
+        pieces = Piece.getPieces();
+        plays = new Placements[maxDepth + 1];
+        for (int i = 0; i <= maxDepth; i++) {
+            plays[i] = new Placements();
+        }
+    }
+
+
+    public TranspositionTable getTable() {
+        return table;
+    }
+
+
+    /*
+     Whether a board and its mirror image share a table entry.
+     Only turn this on (it is by default) if the rater scores
+     mirrored boards the same, as LameBrain and
+     ErikWurmanSinaBakhtiariBrain do.
+    */
+    public void setMirrorKeys(boolean mirror) {
+        if (mirror != this.mirror) table.clear();
+        this.mirror = mirror;
+    }
+
+
+    public BoardRater getRater() {
+        return rater;
+    }
+
+
+    public void setRater(BoardRater rater) {
+        this.rater = rater;
+        table.clear(); // its values came from the old rater
+    }
+
+
+    public Brain.Move bestMove(Board board, Piece piece, int limitHeight, Brain.Move move) {
+        return bestMove(board, piece, null, 0, limitHeight, move);
+    }
+
+
+    public Brain.Move bestMove(Board board, Piece piece, Piece[] preview, int previewCount,
+                               int limitHeight, Brain.Move move) {
+        return bestMove(board, piece, preview, previewCount, limitHeight, move, null);
+    }
+
+
+    public Brain.Move bestMove(Board board, Piece piece, Piece[] preview, int previewCount,
+                               int limitHeight, Brain.Move move, SearchBudget budget) {
+        ensureBoards(board);
+        if (limitHeight != tableLimit) {
+            // the stored scores depend on where pieces may come to rest
+            table.clear();
+            tableLimit = limitHeight;
+        }
+
+        Placements root = plays[0];
+        if (root.generate(board, piece, limitHeight, rater) == 0) {
+            return(null); // could not find a play at all!
+        }
+        root.sortByScore();
+
+        // depth 0 is free -- the plays are already rated
+        int bestIndex = 0;
+        double bestScore = root.score(0);
+
+        // without a budget go straight to full depth
+        this.budget = budget;
+        for (depth = (budget == null ? Math.max(maxDepth, 1) : 1); depth <= maxDepth; depth++) {
+            if (budget != null && budget.exhausted()) break;
+            aborted = false;
+            int iterIndex = 0;
+            double iterScore = LOST;
+            for (int k = 0; k < root.size(); k++) {
+                // the best play of the last depth first, then in rated order
+                int i = (k == 0) ? bestIndex : (k - 1 < bestIndex ? k - 1 : k);
+                boards[1].copyFrom(board);
+                root.apply(boards[1], i);
+                boards[1].commit();
+                double score = value(1, preview, previewCount, limitHeight);
+                if (aborted) break;
+                if (score < iterScore) {
+                    iterScore = score;
+                    iterIndex = i;
+                }
+            }
+            if (aborted) break; // keep the last depth that finished
+            bestIndex = iterIndex;
+            bestScore = iterScore;
+        }
+        this.budget = null;
+
+        if (move==null) move = new Brain.Move();
+        move.x = root.x(bestIndex);
+        move.y = root.y(bestIndex);
+        move.piece = root.piece(bestIndex);
+        move.score = bestScore;
+        return(move);
+    }
+
+
+    /*
+     Scores boards[level], with (depth - level + 1) pieces still
+     to come. Known pieces come from the preview, the rest are
+     averaged over all 7 pieces.
+    */
+    private double value(int level, Piece[] preview, int previewCount, int limitHeight) {
+        if (level - 1 < previewCount) {
+            return bestOf(level, preview[level - 1], preview, previewCount, limitHeight);
+        }
+
+        final int left = depth - level + 1;
+        final long hash = mirror ? boards[level].canonicalKey() : boards[level].hashKey();
+        double cached = table.get(hash, left);
+        if (cached == cached) return cached; // not NaN
+
+        double sum = 0;
+        for (int p = 0; p < pieces.length; p++) {
+            sum += bestOf(level, pieces[p], preview, previewCount, limitHeight);
+            if (aborted) break; // the rest would only be generated to be thrown away
+        }
+        if (aborted) return LOST;
+        double value = sum / pieces.length;
+        table.put(hash, left, value);
+        return value;
+    }
+
+
+    /*
+     Returns the best score over all plays of the piece on
+     boards[level], searching deeper if there are more levels.
+    */
+    private double bestOf(int level, Piece piece, Piece[] preview, int previewCount, int limitHeight) {
+        Placements list = plays[level];
+        int n = list.generate(boards[level], piece, limitHeight, rater);
+        if (budget != null && budget.spend(n)) {
+            aborted = true;
+            return LOST;
+        }
+        if (n == 0) return LOST;
+
+        double best = LOST;
+        if (level == depth) {
+            for (int j = 0; j < n; j++) {
+                if (list.score(j) < best) best = list.score(j);
+            }
+            return best;
+        }
+
+        for (int j = 0; j < n; j++) {
+            boards[level+1].copyFrom(boards[level]);
+            list.apply(boards[level+1], j);
+            boards[level+1].commit();
+            double score = value(level + 1, preview, previewCount, limitHeight);
+            if (aborted) return LOST;
+            if (score < best) best = score;
+        }
+        return best;
+    }
+
+
+    private void ensureBoards(Board board) {
+        if (boards == null || boards[0].getWidth() != board.getWidth()
+                || boards[0].getHeight() != board.getHeight()) {
+            boards = new Board[maxDepth + 2];
+            for (int i = 0; i < boards.length; i++) {
+                boards[i] = new Board(board.getWidth(), board.getHeight());
+            }
+            table.clear();
+        }
+    }
+}
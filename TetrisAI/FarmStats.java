@@ -0,0 +1,103 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ Live counters of a farm of games -- HillClimbing's weight search,
+ or anything else playing many games -- for MetricsServer to
+ report while it runs.
+
+ Workers only ever add to counters or swap in a new best, and
+ nothing is locked, so a reader scraping at any moment never
+ holds a worker up. The best weights and score are published
+ together as one immutable Best, so a reader never sees the
+ weights of one result with the score of another.
+*/
+public final class FarmStats {
+    private final LongAdder games = new LongAdder();
+    private final LongAdder pieces = new LongAdder();
+    private final AtomicInteger activeWorkers = new AtomicInteger();
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicReference<Best> best = new AtomicReference<Best>();
+
+
+    /*
+     A set of weights and the score it got.
+    */
+    public static final class Best {
+        public final String[] names;
+        public final double[] weights;
+        public final double score;
+
+        public Best(String[] names, double[] weights, double score) {
+            this.names = names.clone();
+            this.weights = weights.clone();
+            this.score = score;
+        }
+    }
+
+
+    /*
+     Counts a finished game of the given length.
+    */
+    public void gameDone(int gamePieces) {
+        games.increment();
+        pieces.add(gamePieces);
+    }
+
+
+    public void workerStarted() {
+        activeWorkers.incrementAndGet();
+    }
+
+
+    public void workerStopped() {
+        activeWorkers.decrementAndGet();
+    }
+
+
+    /*
+     Sets how many games are waiting to be played.
+    */
+    public void setQueueDepth(int n) {
+        queueDepth.set(n);
+    }
+
+
+    /*
+     Publishes the weights as the best so far if their score beats
+     the current best, or there is none yet. Higher is better.
+    */
+    public void offerBest(String[] names, double[] weights, double score) {
+        Best b = new Best(names, weights, score);
+        while (true) {
+            Best current = best.get();
+            if (current != null && current.score >= score) return;
+            if (best.compareAndSet(current, b)) return;
+        }
+    }
+
+
+    public long getGames() {
+        return games.sum();
+    }
+
+    public long getPieces() {
+        return pieces.sum();
+    }
+
+    public int getActiveWorkers() {
+        return activeWorkers.get();
+    }
+
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /*
+     Returns the best so far, or null if none has been offered.
+    */
+    public Best getBest() {
+        return best.get();
+    }
+}
@@ -0,0 +1,172 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/*
+ Writes whole games to a file as the seed they were dealt from
+ and the place every piece landed, so a long or odd game from a
+ farm run can be looked at again later with GameReplay -- at the
+ speed of Board.place(), without asking any brain.
+
+ The file is "TGR" and a version byte, then one record per game:
+
+   long   seed
+   byte   board width, byte board height (Board.getHeight())
+   int    pieces landed
+   int    length of the moves in bytes
+   moves  2 bytes each, high byte first:
+            bits 13-15  piece id (Piece.getId())
+            bits 11-12  rotation (Piece.getRotation())
+            bits  5-10  x
+            bit      4  the landing y follows in one more byte
+          The y is only written for a piece that did not land
+          where Board.dropHeight() puts it -- one slid in under
+          an overhang -- so a move is nearly always 2 bytes.
+
+ A 10 000 piece game takes about 20KB. Every JBrainNoGraphics
+ given the recorder (setRecorder()) fills a Game of its own while
+ it plays, and only hands it over when the game ends, so any
+ number of game threads can share one recorder. Games shorter
+ than minPieces are not written, to keep only the long ones.
+*/
+public final class GameRecorder {
+    static final int MAGIC = ('T' << 24) | ('G' << 16) | ('R' << 8) | 1;
+    static final int EXPLICIT_Y = 1 << 4;
+
+    private final DataOutputStream out;
+    private final int minPieces;
+    private int games; // written so far
+
+
+    /*
+     One game's moves, as it is played.
+    */
+    public static final class Game {
+        long seed;
+        int width;
+        int height;
+        int pieces;
+        byte[] moves = new byte[1024];
+        int length;
+
+        /*
+         Empties the game, to record a new one on the given board.
+        */
+        public void start(long seed, Board board) {
+            if (board.getWidth() > 64) {
+                throw new RuntimeException("Board too wide to record "+board.getWidth());
+            }
+            this.seed = seed;
+            width = board.getWidth();
+            height = board.getHeight();
+            pieces = 0;
+            length = 0;
+        }
+
+        /*
+         Adds a piece landed at x, y on the board. Call before
+         the rows it fills are cleared.
+        */
+        public void landed(Board board, Piece piece, int x, int y) {
+            if (length + 3 > moves.length) {
+                byte[] more = new byte[moves.length * 2];
+                System.arraycopy(moves, 0, more, 0, length);
+                moves = more;
+            }
+            int move = (piece.getId() << 13) | (piece.getRotation() << 11) | (x << 5);
+            boolean explicit = y != dropHeightWithout(board, piece, x, y);
+            if (explicit) move |= EXPLICIT_Y;
+            moves[length++] = (byte) (move >>> 8);
+            moves[length++] = (byte) move;
+            if (explicit) moves[length++] = (byte) y;
+            pieces++;
+        }
+
+        public int getPieces() {
+            return pieces;
+        }
+    }
+
+
+    public GameRecorder(OutputStream out, int minPieces) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        this.minPieces = minPieces;
+        this.out.writeInt(MAGIC);
+    }
+
+
+    /*
+     If -Dtetris.record names a file, returns a recorder writing to
+     it the games of at least -Dtetris.record.min pieces (all games
+     if not given), else returns null.
+    */
+    public static GameRecorder openIfConfigured() {
+        String file = System.getProperty("tetris.record");
+        if (file == null) return null;
+        try {
+            return new GameRecorder(new FileOutputStream(file), Integer.getInteger("tetris.record.min", 0));
+        }
+        catch (IOException e) {
+            System.err.println("Could not record games to "+file+": "+e);
+            return null;
+        }
+    }
+
+
+    /*
+     Writes the game if it is long enough. May be called from any
+     thread.
+    */
+    public synchronized void write(Game game) {
+        if (game.pieces < minPieces) return;
+        try {
+            out.writeLong(game.seed);
+            out.writeByte(game.width);
+            out.writeByte(game.height);
+            out.writeInt(game.pieces);
+            out.writeInt(game.length);
+            out.write(game.moves, 0, game.length);
+            games++;
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Could not record game: "+e, e);
+        }
+    }
+
+
+    /*
+     Returns the number of games written so far.
+    */
+    public synchronized int getGames() {
+        return games;
+    }
+
+
+    /*
+     Writes out what is buffered and closes the file.
+    */
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+
+    /*
+     Returns Board.dropHeight() of the piece at x on the board as it
+     was before the piece landed at x, y -- the same height worked
+     out from the column bits with the piece's own blocks taken out.
+    */
+    static int dropHeightWithout(Board board, Piece piece, int x, int y) {
+        final int[] skirt = piece.getSkirt();
+        final int[] top = piece.getTop();
+        int result = 0;
+        for (int i = 0; i < skirt.length; i++) {
+            long bits = board.getColumnBits(x + i);
+            bits &= ~(((1L << (top[i] - skirt[i])) - 1) << (y + skirt[i]));
+            int height = 64 - Long.numberOfLeadingZeros(bits);
+            result = Math.max(result, height - skirt[i]);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,256 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/*
+ Plays back the games in a GameRecorder file, one move at a time
+ or straight to the end. Each move is just a Board.place() and
+ clearRows() of the recorded piece where it landed, so a game
+ comes back as fast as the board goes -- no brain is asked.
+
+   java GameReplay games.rec              one line per game
+   java GameReplay games.rec 3            ... and game 3's last board
+   java GameReplay games.rec 3 1200       game 3's board after 1200 pieces
+*/
+public final class GameReplay {
+    private final DataInputStream in;
+
+    // the game being played back
+    private long seed;
+    private int pieces; // moves in the game
+    private byte[] moves = new byte[1024];
+    private int length;
+    private Board board;
+
+    // how far it has got
+    private int position; // in moves[]
+    private int played;
+    private int lines;
+    private Piece lastPiece;
+    private int lastX, lastY;
+
+
+    public GameReplay(InputStream in) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(in, 1 << 16));
+        if (this.in.readInt() != GameRecorder.MAGIC) {
+            throw new IOException("Not a game recording");
+        }
+    }
+
+
+    /*
+     Reads the next game and sets it up on an empty board.
+     Returns false at the end of the file.
+    */
+    public boolean nextGame() throws IOException {
+        try {
+            seed = in.readLong();
+        }
+        catch (EOFException e) {
+            return false;
+        }
+        int width = in.readUnsignedByte();
+        int height = in.readUnsignedByte();
+        pieces = in.readInt();
+        length = in.readInt();
+        if (moves.length < length) {
+            moves = new byte[length];
+        }
+        in.readFully(moves, 0, length);
+
+        if (board == null || board.getWidth() != width || board.getHeight() != height) {
+            board = new Board(width, height);
+        }
+        else {
+            board.clear();
+        }
+        position = 0;
+        played = 0;
+        lines = 0;
+        lastPiece = null;
+        return true;
+    }
+
+
+    /*
+     Skips the next game without playing it. Returns false at the
+     end of the file.
+    */
+    public boolean skipGame() throws IOException {
+        try {
+            in.readLong();
+        }
+        catch (EOFException e) {
+            return false;
+        }
+        in.readUnsignedShort();
+        in.readInt();
+        int n = in.readInt();
+        while (n > 0) {
+            n -= in.skipBytes(n);
+        }
+        return true;
+    }
+
+
+    /*
+     Plays the next move of the game. Returns false if the game
+     has no more.
+    */
+    public boolean step() {
+        if (played == pieces) return false;
+        int move = ((moves[position] & 0xFF) << 8) | (moves[position + 1] & 0xFF);
+        position += 2;
+        Piece piece = Piece.getPiece(move >>> 13, (move >>> 11) & 3);
+        int x = (move >>> 5) & 0x3F;
+        int y;
+        if ((move & GameRecorder.EXPLICIT_Y) != 0) {
+            y = moves[position++] & 0xFF;
+        }
+        else {
+            y = board.dropHeight(piece, x);
+        }
+
+        int result = board.place(piece, x, y);
+        if (result >= Board.PLACE_OUT_BOUNDS) {
+            throw new RuntimeException("Move "+played+" of game "+seed+" does not fit the board");
+        }
+        if (result == Board.PLACE_ROW_FILLED) {
+            for (int i = 0; i < piece.getHeight(); i++) {
+                if (board.getRowWidth(y + i) == board.getWidth()) lines++;
+            }
+            board.clearRows();
+        }
+        board.commit();
+        played++;
+        lastPiece = piece;
+        lastX = x;
+        lastY = y;
+        return true;
+    }
+
+
+    /*
+     Plays moves until the given number have been played, or the
+     game ends.
+    */
+    public void playTo(int move) {
+        while (played < move && step()) {
+        }
+    }
+
+
+    public void playToEnd() {
+        playTo(pieces);
+    }
+
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public int getPieces() {
+        return pieces;
+    }
+
+    public int getPlayed() {
+        return played;
+    }
+
+    public int getLines() {
+        return lines;
+    }
+
+    public Board getBoard() {
+        return board;
+    }
+
+    /*
+     The piece of the last move played and where it landed, or
+     null before the first.
+    */
+    public Piece getLastPiece() {
+        return lastPiece;
+    }
+
+    public int getLastX() {
+        return lastX;
+    }
+
+    public int getLastY() {
+        return lastY;
+    }
+
+
+    /*
+     Returns the board as text, top row first, # for a block.
+    */
+    public static String toText(Board board) {
+        StringBuilder s = new StringBuilder();
+        for (int y = board.getHeight() - 1; y >= 0; y--) {
+            s.append('|');
+            for (int x = 0; x < board.getWidth(); x++) {
+                s.append(board.getGrid(x, y) ? '#' : ' ');
+            }
+            s.append("|\n");
+        }
+        s.append('+');
+        for (int x = 0; x < board.getWidth(); x++) {
+            s.append('-');
+        }
+        s.append("+\n");
+        return s.toString();
+    }
+
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("usage: java GameReplay file [game [move]]");
+            return;
+        }
+        GameReplay replay = new GameReplay(new FileInputStream(args[0]));
+        try {
+            if (args.length > 1) {
+                int game = Integer.parseInt(args[1]);
+                for (int i = 0; i < game; i++) {
+                    if (!replay.skipGame()) {
+                        System.err.println("There are only "+i+" games");
+                        return;
+                    }
+                }
+                if (!replay.nextGame()) {
+                    System.err.println("There are only "+game+" games");
+                    return;
+                }
+                replay.playTo(args.length > 2 ? Integer.parseInt(args[2]) : replay.getPieces());
+                System.out.println("game "+game+" seed "+replay.getSeed()+" after "+replay.getPlayed()
+                                   +" of "+replay.getPieces()+" pieces, "+replay.getLines()+" lines");
+                System.out.print(toText(replay.getBoard()));
+                return;
+            }
+
+            long start = System.nanoTime();
+            long total = 0;
+            int game = 0;
+            while (replay.nextGame()) {
+                int highest = 0;
+                while (replay.step()) {
+                    highest = Math.max(highest, replay.getBoard().getMaxHeight());
+                }
+                total += replay.getPlayed();
+                System.out.println("game "+game+" seed "+replay.getSeed()+" pieces "+replay.getPieces()
+                                   +" lines "+replay.getLines()+" highest "+highest);
+                game++;
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.println(game+" games, "+total+" pieces in "+seconds+"s, "
+                               +Math.round(total / seconds)+" pieces/s");
+        }
+        finally {
+            replay.in.close();
+        }
+    }
+}
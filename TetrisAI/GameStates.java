@@ -0,0 +1,61 @@
+import java.util.ArrayList;
+
+/*
+ Captures real boards from real games, for the benchmarks to run
+ on: a board that a brain actually built up is a lot more like
+ what the game sees than an empty or a random one.
+
+ The games are played headless by JBrainNoGraphics from a fixed
+ seed, so the same arguments always give the same boards. Every
+ "every" pieces the board is copied just after a piece has landed
+ and its full rows are gone -- what the brain is asked about next.
+*/
+public final class GameStates {
+
+    private GameStates() {
+    }
+
+
+    /*
+     Plays seeded games with the brain until count boards have been
+     captured, one every "every" pieces, and returns them. A game
+     that goes on for longer than maxPieces is stopped and the next
+     one started, so a strong brain does not keep playing the same
+     low board forever.
+    */
+    public static Board[] capture(Brain brain, long seed, int count, final int every, final int maxPieces) {
+        final ArrayList<Board> boards = new ArrayList<Board>();
+        final int wanted = count;
+        JBrainNoGraphics game = new JBrainNoGraphics(0, 0, brain, 0) {
+            public Piece pickNextPiece() {
+                if (gamePieces > 0 && gamePieces % every == 0 && boards.size() < wanted) {
+                    Board copy = new Board(board.getWidth(), board.getHeight());
+                    copy.copyFrom(board);
+                    boards.add(copy);
+                }
+                if (boards.size() >= wanted || gamePieces >= maxPieces) {
+                    stopGame();
+                }
+                return super.pickNextPiece();
+            }
+        };
+        for (int g = 0; boards.size() < wanted; g++) {
+            game.setSeed(seed + g);
+            game.startGame();
+        }
+        return boards.toArray(new Board[boards.size()]);
+    }
+
+
+    /*
+     Returns the number of empty squares on the board that have a
+     filled square somewhere above them.
+    */
+    public static int holes(Board board) {
+        int holes = 0;
+        for (int x = 0; x < board.getWidth(); x++) {
+            holes += board.getColumnHeight(x) - Long.bitCount(board.getColumnBits(x));
+        }
+        return holes;
+    }
+}
@@ -24,24 +24,39 @@ public class HillClimbing {
 	int n = 150; //number of iterations
 	int trials = 20;
 	int trialsBeforeRandomJump = 25;
+	FarmStats stats = new FarmStats(); // served by MetricsServer if asked for
+	GameRecorder recorder = GameRecorder.openIfConfigured(); // null unless -Dtetris.record is given
+	PieceBank bank = PieceBank.openIfConfigured(); // with -Dtetris.pieces, every set of weights plays the same games
+	static final String[] WEIGHT_NAMES = {"maxHeight", "touchingWall", "holes", "roughness", "aggregateHeight"};
 
 	public double[] SoftStochasticSearch(double maxHeight, double touchingWall, double holes, double roughness, double aggregateHeight){
 
 		double score_for_current_weights = 0;
 		double[] best_weights = {maxHeight, touchingWall, holes, roughness, aggregateHeight};
+		stats.workerStarted();
 
 		for (int i = 0; i<n; i++){
+			TetrisEvents.Iteration event = null; // only made while JFR records them
+			if (TetrisEvents.ITERATION.isEnabled()) {
+				event = new TetrisEvents.Iteration();
+				event.begin();
+			}
 			double[] weights = {maxHeight, touchingWall, holes, roughness, aggregateHeight};
 
 			if (i==0) {
 				JBrainNoGraphics game = new JBrainNoGraphics(20,10, weights[0], weights[1], weights[2], weights[3], weights[4]);
+				game.setFarmStats(stats);
+				game.setRecorder(recorder);
+				game.setPieceBank(bank);
 
 				for (int j = 0; j < trials; j++){
+					stats.setQueueDepth(trials - j);
 					game.startGame();
 					int score = game.getPieces(); //score of a game with weights from the array with changed weight
 					game.stopGame();
 					score_for_current_weights += ((double) score / trials);
 				}
+				stats.offerBest(WEIGHT_NAMES, weights, score_for_current_weights);
 
 			}
 
@@ -54,18 +69,37 @@ public class HillClimbing {
 
 			double average = 0.0;
 			JBrainNoGraphics game2 = new JBrainNoGraphics(20,10, weights[0], weights[1], weights[2], weights[3], weights[4]);
+			game2.setFarmStats(stats);
+			game2.setRecorder(recorder);
+			game2.setPieceBank(bank);
 
 			for (int j = 0; j < trials; j++){
+				stats.setQueueDepth(trials - j);
 				game2.startGame();
 				int score = game2.getPieces(); //score of a game with weights from the array with changed weight
 				game2.stopGame();
 				average += ((double) score / trials);
 			}
+			stats.setQueueDepth(0);
+			stats.offerBest(WEIGHT_NAMES, weights, average);
 
 			System.out.println("Average: " + average);
 
 
-			if (average > (score_for_current_weights * exploration_constant_percent)){
+			boolean accepted = average > (score_for_current_weights * exploration_constant_percent);
+			if (event != null) {
+				event.iteration = i;
+				event.maxHeight = weights[0];
+				event.touchingWall = weights[1];
+				event.holes = weights[2];
+				event.roughness = weights[3];
+				event.aggregateHeight = weights[4];
+				event.score = average;
+				event.accepted = accepted;
+				event.commit();
+			}
+
+			if (accepted){
 				maxHeight = weights[0];
 				touchingWall = weights[1];
 				holes = weights[2];
@@ -95,6 +129,7 @@ public class HillClimbing {
 
 		}
 
+		stats.workerStopped();
 		double[] results = {maxHeight, touchingWall, holes, roughness, aggregateHeight}; //final weights
 		// print final weights (i.e. results) anf final score
 		for (int i = 0; i < results.length; i++){
@@ -107,7 +142,8 @@ public class HillClimbing {
 
 	public static void main(String[] args) {
 		HillClimbing hillClimber = new HillClimbing();
-
+		Metrics.startDump();
+		MetricsServer server = MetricsServer.startIfConfigured(hillClimber.stats);
 
 		if (args.length != 0){
 			System.out.println("Calling single hill climbing");
@@ -138,6 +174,15 @@ public class HillClimbing {
 				System.out.println(best_weights[j]);
 			}
 		}
+		if (server != null) server.stop();
+		if (hillClimber.recorder != null) {
+			try {
+				hillClimber.recorder.close();
+			}
+			catch (java.io.IOException e) {
+				System.err.println("Could not finish the game recording: "+e);
+			}
+		}
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,109 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ A fixed memory histogram of non-negative longs (nanoseconds,
+ pieces per game, ...) in the style of HdrHistogram: values are
+ kept to about 6% precision from 0 up to Long.MAX_VALUE in 960
+ counters, so recording never allocates and never loses a value.
+
+ Values below 32 get a counter each. Above that every power of
+ two is split into 16 equal counters, so a counter is never more
+ than 1/16 of its value wide. Percentiles are reported as the
+ top of the counter they fall in.
+
+ Any number of threads may record at once; nothing is locked.
+ A reader running alongside them gets counts that are each right
+ but may be a few values apart from each other.
+*/
+public final class Histogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts.incrementAndGet(bucket(value));
+        count.increment();
+        sum.add(value);
+        long m = max.get();
+        while (value > m && !max.compareAndSet(m, value)) {
+            m = max.get();
+        }
+    }
+
+
+    public long getCount() {
+        return count.sum();
+    }
+
+
+    public double getMean() {
+        long n = count.sum();
+        return (n == 0) ? 0 : (double) sum.sum() / n;
+    }
+
+
+    public long getMax() {
+        return max.get();
+    }
+
+
+    /*
+     Returns the value at or below which the given percentage of
+     the recorded values lie, to the histogram's precision.
+    */
+    public long getPercentile(double percent) {
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            n += counts.get(i);
+        }
+        if (n == 0) return 0;
+        long rank = (long) Math.ceil(n * Math.min(Math.max(percent, 0), 100) / 100);
+        if (rank < 1) rank = 1;
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(highest(i), max.get());
+        }
+        return max.get();
+    }
+
+
+    /*
+     Forgets every value recorded so far.
+    */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+
+
+    private static int bucket(long value) {
+        if (value < 2 * SUB) return (int) value;
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return SUB * (shift + 1) + (int) (value >>> shift) - SUB;
+    }
+
+
+    /*
+     The largest value that goes into bucket i.
+    */
+    private static long highest(int i) {
+        if (i < 2 * SUB) return i;
+        final int shift = i / SUB - 1;
+        final long top = ((long) (i % SUB + SUB + 1) << shift) - 1;
+        return (top < 0) ? Long.MAX_VALUE : top;
+    }
+}
@@ -18,11 +18,12 @@ import java.awt.event.*;
 import javax.swing.event.*;
 
 public class JBrainNoGraphics extends JTetrisTrain
-implements Brain {
+implements Brain, BoardRater {
 
     protected boolean brainActive;
     protected int previousCount;
     protected Brain.Move best;
+    protected Brain.Move played = new Brain.Move(); // filled by the brain for every piece
     protected Brain brains;
     protected JTextField brainText;
     protected JTextField advText;
@@ -32,6 +33,21 @@ implements Brain {
     protected int opponent;
     protected Brain myOpponent;
     protected int gamePieces = 0;
+    protected BrainDriver driver; // asks the brain and the adversary, shared with JBrainTetris
+    protected long seed; // for the pieces of the next game, if seeded
+    protected boolean seeded = false;
+    protected Random seeds = new Random(); // seeds the unseeded games
+    protected long gameSeed; // the seed this game's pieces came from
+    protected int gameLines; // rows cleared this game
+    protected TetrisEvents.Game gameEvent; // while a Game event is being recorded, else null
+    protected int moveSampling = 64; // a Move event for one decision in this many
+    protected int unsampled = 0; // decisions since the last Move event
+    protected FarmStats farmStats; // told about every finished game, if set
+    protected GameRecorder recorder; // writes every finished game, if set
+    protected GameRecorder.Game recording; // the moves of this game, for the recorder
+    protected PieceSource dealer; // deals the pieces from a PieceBank, if set
+    protected int nextSequence = 0; // the bank sequence of the next unseeded game
+    protected long thinkMillis = 0; // time an AnytimeBrain gets per piece, 0 for no limit
 
     public final int MAXGAMES = 10000;
     public final boolean OPTIMIZING = true;
@@ -39,6 +55,7 @@ implements Brain {
 
     public JBrainNoGraphics(int w, int h, double maxHeight, double touchingWall, double holes, double roughness, double aggregateHeight) {
         super(w, h);
+        driver = new BrainDriver(pieces, HEIGHT);
         brainActive = true;
         previousCount = count;
         brains = new ErikWurmanSinaBakhtiariBrain(maxHeight, touchingWall, holes, roughness, aggregateHeight);
@@ -47,9 +64,27 @@ implements Brain {
         myOpponent = this; //new Sith(false);
     }
 
+    /*
+    Plays with the given brain instead of the weighted
+    ErikWurmanSinaBakhtiariBrain. A PreviewBrain is shown
+    previewSize upcoming pieces.
+     */
+    public JBrainNoGraphics(int w, int h, Brain brain, int previewSize) {
+        super(w, h);
+        driver = new BrainDriver(pieces, HEIGHT);
+        brainActive = true;
+        previousCount = count;
+        brains = brain;
+        gamesPlayed = 0;
+        drop = true;
+        myOpponent = this;
+        setPreviewSize(previewSize);
+    }
+
     /*
     public JBrainNoGraphics(int w, int h) {
         super(w, h);
+        driver = new BrainDriver(pieces, HEIGHT);
         brainActive = true;
         previousCount = count;
         brains = new JediMindTrick();
@@ -90,8 +125,34 @@ implements Brain {
 
         if (previousCount != count && brainActive) {
             previousCount++;
-            // got a new piece - figure out where to put it
-            best = brains.bestMove(board, currentPiece, HEIGHT, null);
+            // got a new piece - figure out where to put it,
+            // unless the adversary just did that on this very board
+            Brain.Move known = driver.takeForeseen(board, currentPiece);
+            if (known != null) {
+                best = known;
+            }
+            else {
+                TetrisEvents.Move event = null;
+                if (TetrisEvents.MOVE.isEnabled() && ++unsampled >= moveSampling) {
+                    unsampled = 0;
+                    event = new TetrisEvents.Move();
+                    event.begin();
+                }
+                long start = Metrics.ENABLED ? System.nanoTime() : 0;
+                best = driver.askPlayer(brains, board, currentPiece, preview, thinkMillis(), played);
+                if (Metrics.ENABLED) {
+                    Metrics.MOVE_NANOS.record(System.nanoTime() - start);
+                    Metrics.MOVES.increment();
+                }
+                if (event != null) {
+                    event.end();
+                    event.brain = brains.getClass().getName();
+                    event.piece = currentPiece.getId();
+                    event.candidates = TetrisEvents.candidates(board, currentPiece, HEIGHT);
+                    event.maxHeight = board.getMaxHeight();
+                    event.commit();
+                }
+            }
             //System.out.println(best.score);
         }
         boolean moved = false;
@@ -159,6 +220,10 @@ implements Brain {
          */
         if ((failed && verb==DOWN && !moved) || lost) { // it's landed
 
+            if (recorder != null) recording.landed(board, currentPiece, currentX, currentY);
+            for (int y = 0; y < board.getMaxHeight(); y++) {
+                if (board.getRowWidth(y) == board.getWidth()) gameLines++;
+            }
             //if (!drop)
             if (board.clearRows()) {
                 //repaint(); // repaint to show the result of the row clearing
@@ -179,6 +244,131 @@ implements Brain {
         moved = (!failed && verb!=DOWN);
     }
 
+    /*
+    Sets the time an AnytimeBrain may think about each piece,
+    0 for no limit.
+     */
+    public void setThinkMillis(long millis) {
+        thinkMillis = millis;
+    }
+
+    /*
+    Returns the time an AnytimeBrain may think about each piece.
+     */
+    public long thinkMillis() {
+        return thinkMillis;
+    }
+
+    /*
+    Has the adversary try the 7 pieces at the same time, piece i
+    with opponents[i] on its own thread, which then also becomes
+    the opponent brain. The brains must be separate objects. With
+    setAdversaryNodes() (or brains that are not AnytimeBrains) the
+    pieces picked are the same on every run, however the threads
+    are scheduled. null goes back to one brain on the game's thread.
+     */
+    public void setParallelAdversary(Brain[] opponents) {
+        driver.setParallelAdversary(opponents);
+        if (opponents != null) myOpponent = opponents[0];
+    }
+
+    /*
+    Makes every later game deal its pieces from the given seed, so
+    the same seed and brains play the same game. Test mode still
+    always uses seed 0.
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+        seeded = true;
+    }
+
+    /*
+    Counts every finished game in stats, e.g. for a MetricsServer.
+    null stops counting.
+     */
+    public void setFarmStats(FarmStats stats) {
+        farmStats = stats;
+    }
+
+    /*
+    Deals the pieces of every later game from the bank instead of
+    the random generator: each game takes the bank's next sequence,
+    or after setSeed(n), sequence n every time. null goes back to
+    the random generator.
+     */
+    public void setPieceBank(PieceBank bank) {
+        dealer = (bank == null) ? null : new PieceSource(bank);
+        nextSequence = 0;
+    }
+
+    /*
+    Hands every finished game to the recorder, to be written if it
+    is long enough. null stops recording.
+     */
+    public void setRecorder(GameRecorder recorder) {
+        this.recorder = recorder;
+        if (recorder != null && recording == null) {
+            recording = new GameRecorder.Game();
+        }
+    }
+
+    /*
+    Records a JFR Move event for one decision in every n, while
+    a recording has them enabled.
+     */
+    public void setMoveSampling(int n) {
+        moveSampling = Math.max(n, 1);
+    }
+
+    /*
+    Limits an AnytimeBrain to searching a number of nodes per piece,
+    0 for no limit. With no time limit either, the brain plays the
+    same on any machine.
+     */
+    public void setThinkNodes(long nodes) {
+        driver.setThinkNodes(nodes);
+    }
+
+    /*
+    Limits an AnytimeBrain adversary to a number of nodes per piece
+    it tries, instead of a share of the player's thinking time, so
+    the pieces it picks are the same on any machine. 0 goes back
+    to time.
+     */
+    public void setAdversaryNodes(long nodes) {
+        driver.setAdversaryNodes(nodes);
+    }
+
+    /*
+    Sets how many pieces into a game the adversary plays every
+    time it is asked to; after that it only plays 80% of the time.
+     */
+    public void setAdversaryPieces(int n) {
+        driver.setAdversaryPieces(n);
+    }
+
+    /*
+    Puts an EvaluationCache of the given number of entries in front
+    of the brain's rater, so a board the search meets again is not
+    rated again. With mirror a board and its mirror image share an
+    entry -- only for raters that score both the same. Returns the
+    cache, to read its counters, or null if the brain does not take
+    a rater (is not a RatedBrain). 0 entries takes the cache away.
+     */
+    public EvaluationCache cacheRatings(int capacity, boolean mirror) {
+        return BrainDriver.cacheRatings(brains, capacity, mirror);
+    }
+
+    /*
+    Makes the adversary ask the player's own brain instead of its
+    opponent brain. The answer for the piece it picks is then
+    exactly what the player would work out for it, so the player
+    uses it instead of searching the same board again.
+     */
+    public void setSharedAdversary(boolean shared) {
+        driver.setSharedAdversary(shared);
+    }
+
     /*
     Selects the next piece to use using the random generator
     set in startGame().  Updated to check on adversary
@@ -186,37 +376,24 @@ implements Brain {
     public Piece pickNextPiece() {
         gamePieces++;
         int r = 101;
-        if (!testMode)
-            r = Math.abs(random.nextInt()) % 100;
-        //System.out.println(r+" "+opponent);
         int pieceNum;
-        pieceNum = (int) (pieces.length * random.nextDouble());
-        long delta = (System.currentTimeMillis() - startTime)/10;
+        if (dealer != null && !testMode) {
+            // from the bank -- only the adversary needs a random number
+            pieceNum = dealer.next();
+            if (opponent > 0)
+                r = Math.abs(random.nextInt()) % 100;
+        }
+        else {
+            if (!testMode)
+                r = Math.abs(random.nextInt()) % 100;
+            //System.out.println(r+" "+opponent);
+            pieceNum = (int) (pieces.length * random.nextDouble());
+        }
 
-        if (r < opponent && (OPTIMIZING && (delta < 150 || r < 80)) ) {
-            double score = 1000000.0;
-            double best = 0.0;
-            Brain.Move mov;
-            Piece piece = pieces[0];
+        if (OPTIMIZING && driver.adversaryPlays(r, opponent, gamePieces)) {
             // feed all of the pieces to the adversary
             board.commit();
-            mov = myOpponent.bestMove(board, piece, HEIGHT, null);
-            if (mov != null) 
-                score = mov.score;
-            pieceNum = 0;
-            for (int i = 1; i < pieces.length; i++) {
-                piece = pieces[i];
-                myOpponent.bestMove(board, piece, HEIGHT, mov);
-                if (mov != null) {
-                    score = mov.score;
-                    if (score > best) {
-                        pieceNum = i;
-                        best = score;
-                    }
-                }
-            }
-            //System.out.println("Picked piece with score "+best);
-            //return piece;
+            pieceNum = driver.adversaryPick(board, brains, myOpponent, thinkMillis(), previewSize);
         }
 
         Piece piece  = pieces[pieceNum];
@@ -224,6 +401,14 @@ implements Brain {
         return(piece);
     }
 
+    /*
+    Sets the brain the adversary asks about each piece, e.g. a
+    MinimaxBrain for a stronger adversary than the game's own brain.
+     */
+    public void setOpponent(Brain brain) {
+        myOpponent = brain;
+    }
+
     /*
     Set the percentage usage of the opponent brain
      */
@@ -236,7 +421,26 @@ implements Brain {
      */
     public void stopGame() {
         //System.out.println(count);
+        boolean wasOn = gameOn; // callers may stop a game that is over
         gameOn = false;
+        if (Metrics.ENABLED && wasOn) {
+            Metrics.GAMES.increment();
+            Metrics.GAME_PIECES.record(gamePieces);
+        }
+        if (farmStats != null && wasOn) {
+            farmStats.gameDone(gamePieces);
+        }
+        if (recorder != null && wasOn) {
+            recorder.write(recording);
+        }
+        if (gameEvent != null && wasOn) {
+            gameEvent.end();
+            gameEvent.seed = gameSeed;
+            gameEvent.pieces = gamePieces;
+            gameEvent.lines = gameLines;
+            gameEvent.commit();
+            gameEvent = null;
+        }
         //timer.stop();
 
         long delta = (System.currentTimeMillis() - startTime)/10;
@@ -249,18 +453,48 @@ implements Brain {
     so the game is happening.
      */
     public void startGame() {
-        // cheap way to reset the board state
-        board = new Board(WIDTH, HEIGHT + TOP_SPACE);
+        // empty the board and generator in place, so playing game
+        // after game allocates nothing once the first has started
+        if (board == null || board.getWidth() != WIDTH
+                || board.getHeight() != HEIGHT + TOP_SPACE) {
+            board = new Board(WIDTH, HEIGHT + TOP_SPACE);
+        }
+        else {
+            board.clear();
+        }
 
         count = 0;
+        previousCount = 0; // so the brain is asked once per piece
+        preview.clear();
+        driver.forgetForeseen();
         gameOn = true;
         gamePieces = 0;
 
+        if (random == null) {
+            random = new Random();
+        }
         if (testMode) {
-            random = new Random(0); // same seq every time
+            gameSeed = 0; // same seq every time
+        }
+        else if (dealer != null) {
+            // the bank's sequences in turn, or the chosen one
+            int sequence = seeded ? (int) seed : nextSequence++ % dealer.getBank().getSequences();
+            dealer.start(sequence);
+            gameSeed = dealer.getSeed();
+        }
+        else if (seeded) {
+            gameSeed = seed; // the chosen seq
         }
         else {
-            random = new Random(); // diff seq each game
+            gameSeed = seeds.nextLong(); // diff seq each game
+        }
+        random.setSeed(gameSeed);
+        gameLines = 0;
+        if (recorder != null) recording.start(gameSeed, board);
+        gameEvent = null;
+        if (TetrisEvents.GAME.isEnabled()) {
+            gameEvent = new TetrisEvents.Game();
+            gameEvent.begin();
         }
 
         addNewPiece();
@@ -290,6 +524,7 @@ implements Brain {
         int bestY = 0;
         Piece bestPiece = null;
         Piece current = piece;
+        int considered = 0; // legal plays, for Metrics
 
         // loop through all the rotations
         while (true) {
@@ -300,6 +535,7 @@ implements Brain {
             for (int x = 0; x<xBound; x++) {
                 int y = board.dropHeight(current, x);
                 if (y<yBound) { // piece does not stick up too far
+                    considered++;
                     int result = board.place(current, x, y);
                     if (result <= Board.PLACE_ROW_FILLED) {
                         if (result == Board.PLACE_ROW_FILLED) board.clearRows();
@@ -322,6 +558,7 @@ implements Brain {
             if (current == piece) break; // break if back to original rotation
         }
 
+        if (Metrics.ENABLED) Metrics.CANDIDATES.add(considered);
         if (bestPiece == null) {
             return(null); // could not find a play at all!
         }
@@ -343,6 +580,7 @@ implements Brain {
     See Tetris-Architecture.html for brain ideas.
      */
     public double rateBoard(Board board) {
+        if (Metrics.ENABLED) Metrics.EVALUATIONS.increment();
         final int width = board.getWidth();
         final int maxHeight = board.getMaxHeight();
 
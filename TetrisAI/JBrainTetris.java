@@ -18,7 +18,7 @@ import java.awt.event.*;
 import javax.swing.event.*;
 
 public class JBrainTetris extends JTetris 
-implements Brain {
+implements Brain, BoardRater {
 
     protected boolean brainActive;
     protected int previousCount;
@@ -32,12 +32,25 @@ implements Brain {
     protected int opponent;
     protected Brain myOpponent;
     protected int gamePieces = 0;
+    protected BrainDriver driver; // asks the brain and the adversary, shared with JBrainNoGraphics
+    protected int cacheEntries = 0; // of the rating cache put in front of every brain loaded, 0 for none
+    protected boolean cacheMirror;
+    protected volatile boolean turbo = false; // play on a background thread at full speed
+    protected volatile Thread simulation; // that thread while it runs, else null
+    protected Board shown; // the board as last sampled for the view
+    protected int shownCount; // ... and the count then
+    protected volatile boolean frameWanted; // the view wants a new sample
+    protected volatile boolean frameReady; // a sample the view has not painted yet
+    protected javax.swing.Timer frames; // samples the view in turbo mode
+
+    public static final int FPS = 30; // frames per second in turbo mode
 
     public final int MAXGAMES = 10000;
     public final boolean OPTIMIZING = true;
 
     public JBrainTetris(int w, int h) {
         super(w, h);
+        driver = new BrainDriver(pieces, HEIGHT);
         brainActive = false;
         previousCount = count;
         brains = this;
@@ -149,6 +162,11 @@ implements Brain {
                     try {
                         Class bClass = Class.forName(brainText.getText());
                         brains = (Brain) bClass.newInstance();
+                        // a lookahead brain is no use without a preview
+                        if (brains instanceof PreviewBrain && previewSize == 0) {
+                            setPreviewSize(1);
+                        }
+                        if (cacheEntries > 0) cacheRatings(cacheEntries, cacheMirror);
                         brainText.setText(brainText.getText() + " loaded");
                     }
                     catch (Exception ex) {
@@ -167,6 +185,14 @@ implements Brain {
             });
         panel.add(falling);
 
+        JCheckBox fast = new JCheckBox("Turbo");
+        fast.addActionListener(new ActionListener() {
+                public void actionPerformed(ActionEvent e) {
+                    setTurbo(!turbo);
+                }
+            });
+        panel.add(fast);
+
         JCheckBox brain = new JCheckBox("Brain Active");
         brain.addActionListener(new ActionListener() {
                 public void actionPerformed(ActionEvent e) {
@@ -201,14 +227,22 @@ implements Brain {
         if (!gameOn) {
             return;
         }
+        Thread sim = simulation;
+        if (sim != null && sim != Thread.currentThread()) {
+            return; // the keys do nothing while the game plays itself
+        }
         if (currentPiece != null) {
             board.undo(); // remove the piece from its old position
         }
 
         if (previousCount != count && brainActive) {
             previousCount++;
-            // got a new piece - figure out where to put it
-            best = brains.bestMove(board, currentPiece, HEIGHT, null);
+            // got a new piece - figure out where to put it,
+            // unless the adversary just did that on this very board
+            best = driver.takeForeseen(board, currentPiece);
+            if (best == null) {
+                best = driver.askPlayer(brains, board, currentPiece, preview, thinkMillis(), null);
+            }
             //System.out.println(best.score);
         }
         boolean moved = false;
@@ -254,7 +288,7 @@ implements Brain {
 
         // if row clearing is going to happen, draw the
         // whole board so the green row shows up
-        if (result ==  Board.PLACE_ROW_FILLED) repaint();
+        if (result ==  Board.PLACE_ROW_FILLED && sim == null) repaint();
 
         boolean failed = (result >= Board.PLACE_OUT_BOUNDS);
 
@@ -273,7 +307,7 @@ implements Brain {
         if ((failed && verb==DOWN && !moved) || lost) { // it's landed
 
             //if (!drop)
-            if (board.clearRows()) {
+            if (board.clearRows() && sim == null) {
                 repaint(); // repaint to show the result of the row clearing
             }
 
@@ -292,6 +326,70 @@ implements Brain {
         moved = (!failed && verb!=DOWN);
     }
 
+    /*
+    Returns the time an AnytimeBrain may think about each piece:
+    half of a timer tick, so the brain never holds up the game,
+    but at least a few milliseconds at top speed.
+     */
+    public long thinkMillis() {
+        return Math.max(timer.getDelay() / 2, 5);
+    }
+
+    /*
+    Limits an AnytimeBrain to searching a number of nodes per piece,
+    0 for no limit. With no time limit either, the brain plays the
+    same on any machine.
+     */
+    public void setThinkNodes(long nodes) {
+        driver.setThinkNodes(nodes);
+    }
+
+    /*
+    Limits an AnytimeBrain adversary to a number of nodes per piece
+    it tries, instead of a share of the player's thinking time, so
+    the pieces it picks are the same on any machine. 0 goes back
+    to time.
+     */
+    public void setAdversaryNodes(long nodes) {
+        driver.setAdversaryNodes(nodes);
+    }
+
+    /*
+    Sets how many pieces into a game the adversary plays every
+    time it is asked to; after that it only plays 80% of the time.
+     */
+    public void setAdversaryPieces(int n) {
+        driver.setAdversaryPieces(n);
+    }
+
+    /*
+    Puts an EvaluationCache of the given number of entries in front
+    of the brain's rater, so a board the search meets again is not
+    rated again. With mirror a board and its mirror image share an
+    entry -- only for raters that score both the same. Returns the
+    cache, to read its counters, or null if the brain does not take
+    a rater (is not a RatedBrain). 0 entries takes the cache away.
+    Every brain loaded later gets a cache of its own too.
+     */
+    public EvaluationCache cacheRatings(int capacity, boolean mirror) {
+        cacheEntries = Math.max(capacity, 0);
+        cacheMirror = mirror;
+        return BrainDriver.cacheRatings(brains, capacity, mirror);
+    }
+
+    /*
+    Makes the adversary ask the player's own brain instead of its
+    opponent brain. The answer for the piece it picks is then
+    exactly what the player would work out for it, so the player
+    uses it instead of searching the same board again -- but not
+    for an AnytimeBrain: here thinkMillis() is never 0, so the
+    adversary only ever gave it a share of the player's time, and
+    the player asks again with all of it.
+     */
+    public void setSharedAdversary(boolean shared) {
+        driver.setSharedAdversary(shared);
+    }
+
     /*
     Selects the next piece to use using the random generator
     set in startGame().  Updated to check on adversary
@@ -304,32 +402,11 @@ implements Brain {
         //System.out.println(r+" "+opponent);
         int pieceNum;
         pieceNum = (int) (pieces.length * random.nextDouble());
-        long delta = (System.currentTimeMillis() - startTime)/10;
 
-        if (r < opponent && (OPTIMIZING && (delta < 150 || r < 80)) ) {
-            double score = 1000000.0;
-            double best = 0.0;
-            Brain.Move mov;
-            Piece piece = pieces[0];
+        if (OPTIMIZING && driver.adversaryPlays(r, opponent, gamePieces)) {
             // feed all of the pieces to the adversary
             board.commit();
-            mov = myOpponent.bestMove(board, piece, HEIGHT, null);
-            if (mov != null) 
-                score = mov.score;
-            pieceNum = 0;
-            for (int i = 1; i < pieces.length; i++) {
-                piece = pieces[i];
-                myOpponent.bestMove(board, piece, HEIGHT, mov);
-                if (mov != null) {
-                    score = mov.score;
-                    if (score > best) {
-                        pieceNum = i;
-                        best = score;
-                    }
-                }
-            }
-            //System.out.println("Picked piece with score "+best);
-            //return piece;
+            pieceNum = driver.adversaryPick(board, brains, myOpponent, thinkMillis(), previewSize);
         }
 
         Piece piece  = pieces[pieceNum];
@@ -346,17 +423,166 @@ implements Brain {
     }
 
     /*
-    Stops the game.
+    Starts a game, played by the background thread in turbo mode
+    and by the timer otherwise.
+     */
+    public void startGame() {
+        stopSimulation();
+        previousCount = 0; // so the brain is asked once per piece
+        driver.forgetForeseen();
+        super.startGame();
+        if (turbo) {
+            timer.stop();
+            startSimulation();
+        }
+    }
+
+    /*
+    Stops the game. May be called on the simulation thread,
+    so the controls are updated on the event thread.
      */
     public void stopGame() {
         gameOn = false;
+        final long delta = (System.currentTimeMillis() - startTime)/10;
+        gamesPlayed++;
+        gamePieces = 0;
+        if (SwingUtilities.isEventDispatchThread()) {
+            showStopped(delta);
+        }
+        else {
+            SwingUtilities.invokeLater(new Runnable() {
+                public void run() {
+                    showStopped(delta);
+                }
+            });
+        }
+    }
+
+    private void showStopped(long delta) {
         enableButtons();
         timer.stop();
-
-        long delta = (System.currentTimeMillis() - startTime)/10;
         timeLabel.setText(Double.toString(delta/100.0) + " seconds");
-        gamesPlayed++;
-        gamePieces = 0;
+    }
+
+    /*
+    Turns turbo mode on or off, also in the middle of a game.
+    In turbo mode the game is played on a background thread as
+    fast as the brain can go, and the view shows a copy of the
+    board sampled FPS times a second instead of following every
+    move. Call on the event thread.
+     */
+    public void setTurbo(boolean on) {
+        if (on == turbo) return;
+        turbo = on;
+        if (!gameOn) return;
+        if (on) {
+            timer.stop();
+            startSimulation();
+        }
+        else {
+            stopSimulation();
+            timer.start();
+            repaint();
+        }
+    }
+
+    /*
+    Starts the background thread playing the game, and the timer
+    that samples it for the view.
+     */
+    protected void startSimulation() {
+        if (shown == null || shown.getWidth() != board.getWidth()
+                || shown.getHeight() != board.getHeight()) {
+            shown = new Board(board.getWidth(), board.getHeight());
+        }
+        takeFrame();
+        if (frames == null) {
+            frames = new javax.swing.Timer(1000 / FPS, new ActionListener() {
+                    public void actionPerformed(ActionEvent e) {
+                        if (frameReady) {
+                            frameReady = false;
+                            synchronized (shown) {
+                                countLabel.setText(Integer.toString(shownCount));
+                                repaintChangedRows(); // once a frame
+                            }
+                        }
+                        if (simulation == null) {
+                            frames.stop();
+                        }
+                        frameWanted = true;
+                    }
+                });
+        }
+        final Thread sim = new Thread(new Runnable() {
+                public void run() {
+                    while (gameOn && turbo) {
+                        tick(DOWN);
+                        if (frameWanted) takeFrame();
+                    }
+                    takeFrame(); // the board it stopped on
+                    simulation = null;
+                }
+            }, "JBrainTetris-turbo");
+        sim.setDaemon(true);
+        simulation = sim;
+        frames.start();
+        sim.start();
+    }
+
+    /*
+    Stops the background thread, if it runs, and waits for it.
+     */
+    protected void stopSimulation() {
+        Thread sim = simulation;
+        if (sim == null) return;
+        boolean was = turbo;
+        turbo = false;
+        try {
+            sim.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        turbo = was;
+        simulation = null;
+        frameReady = false;
+        countLabel.setText(Integer.toString(count));
+        repaint();
+    }
+
+    /*
+    Copies the board as it is now for the view to paint.
+    Called by the simulation thread between moves.
+     */
+    protected void takeFrame() {
+        synchronized (shown) {
+            shown.copyFrom(board);
+            shownCount = count;
+        }
+        frameWanted = false;
+        frameReady = true;
+    }
+
+    protected Board paintedBoard() {
+        return (simulation != null || frameReady) ? shown : board;
+    }
+
+    public void paintComponent(Graphics g) {
+        if (shown == null) {
+            super.paintComponent(g);
+            return;
+        }
+        synchronized (shown) {
+            super.paintComponent(g);
+        }
+    }
+
+    public void repaintPiece(Piece piece, int x, int y) {
+        if (simulation == null) super.repaintPiece(piece, x, y);
+    }
+
+    protected void showCount() {
+        if (simulation == null) super.showCount();
     }
 
     /*
@@ -382,6 +608,7 @@ implements Brain {
         int bestY = 0;
         Piece bestPiece = null;
         Piece current = piece;
+        int considered = 0; // legal plays, for Metrics
 
         // loop through all the rotations
         while (true) {
@@ -392,6 +619,7 @@ implements Brain {
             for (int x = 0; x<xBound; x++) {
                 int y = board.dropHeight(current, x);
                 if (y<yBound) { // piece does not stick up too far
+                    considered++;
                     int result = board.place(current, x, y);
                     if (result <= Board.PLACE_ROW_FILLED) {
                         if (result == Board.PLACE_ROW_FILLED) board.clearRows();
@@ -414,6 +642,7 @@ implements Brain {
             if (current == piece) break; // break if back to original rotation
         }
 
+        if (Metrics.ENABLED) Metrics.CANDIDATES.add(considered);
         if (bestPiece == null) return(null); // could not find a play at all!
         else {
             move.x=bestX;
@@ -433,6 +662,7 @@ implements Brain {
     See Tetris-Architecture.html for brain ideas.
      */
     public double rateBoard(Board board) {
+        if (Metrics.ENABLED) Metrics.EVALUATIONS.increment();
         final int width = board.getWidth();
         final int maxHeight = board.getMaxHeight();
 
@@ -67,6 +67,8 @@ public class JTetris extends JComponent {
     protected int count;  // how many pieces played so far
     protected long startTime; // used to measure elapsed time
     protected Random random; // the random generator for new pieces
+    protected PieceQueue preview; // pieces already picked, waiting to be played
+    protected int previewSize; // how many upcoming pieces are shown to the brain
     protected int gamesPlayed;  // how many games we've played (used for optimizing)
 
     // Controls
@@ -77,6 +79,12 @@ public class JTetris extends JComponent {
     protected javax.swing.Timer timer;
     protected JSlider speed;
 
+    // What the screen shows -- see paintComponent()
+    private long[] drawnColumns; // the column bits as last painted
+    private int[] columnLeft; // xPixel() of each column, and of the right edge
+    private int[] rowTop; // yPixel() of each row
+    private int drawnWidth, drawnHeight; // the size those were worked out for
+
     public final int DELAY = 400; // milliseconds per tick
 
     JTetris(int width, int height) {
@@ -88,6 +96,8 @@ public class JTetris extends JComponent {
 
         pieces = Piece.getPieces();
         board = new Board(WIDTH, HEIGHT + TOP_SPACE);
+        previewSize = 0;
+        preview = new PieceQueue(1);
 
         /*
         Register key handlers that call
@@ -194,6 +204,7 @@ public class JTetris extends JComponent {
         repaint();
 
         count = 0;
+        preview.clear();
         gameOn = true;
 
         if (testMode) random = new Random(0); // same seq every time
@@ -257,6 +268,32 @@ public class JTetris extends JComponent {
         return(piece);
     }
 
+    /*
+    Returns the piece to put in play next. Without a preview
+    this is just pickNextPiece(). With one, pieces are picked
+    previewSize pieces ahead of time and handed out in order,
+    so the brain can see what is coming.
+     */
+    public Piece takeNextPiece() {
+        if (previewSize == 0) {
+            return pickNextPiece();
+        }
+        while (preview.size() <= previewSize) {
+            preview.add(pickNextPiece());
+        }
+        return preview.take();
+    }
+
+    /*
+    Sets how many upcoming pieces are picked ahead of time and
+    shown to a PreviewBrain. 0 turns the preview off.
+    Pieces already picked are thrown away.
+     */
+    public void setPreviewSize(int n) {
+        previewSize = Math.max(n, 0);
+        preview = new PieceQueue(previewSize + 1);
+    }
+
     /*
     Tries to add a new random at the top of the board.
     Ends the game if it's not possible.
@@ -269,7 +306,7 @@ public class JTetris extends JComponent {
             return;
         }
 
-        Piece piece = pickNextPiece();
+        Piece piece = takeNextPiece();
 
         // Center it up at the top
         int px = (board.getWidth() - piece.getWidth())/2;
@@ -289,9 +326,24 @@ public class JTetris extends JComponent {
             stopGame();
         }
 
+        showCount();
+    }
+
+    /*
+    Shows the number of pieces played so far.
+     */
+    protected void showCount() {
         countLabel.setText(Integer.toString(count));
     }
 
+    /*
+    Returns the board paintComponent() draws -- the game's own
+    board, unless a subclass keeps a copy for the view.
+     */
+    protected Board paintedBoard() {
+        return board;
+    }
+
     /*
     Figures a new position for the current piece
     based on the given verb (LEFT, RIGHT, ...).
@@ -463,8 +515,14 @@ public class JTetris extends JComponent {
     around the whole thing. Uses the pixel helpers
     above to map board coords to pixel coords.
     Draws rows that are filled all the way across in green.
+
+    Only the rows and columns inside the clip are drawn -- Swing
+    keeps the rest of the picture in its own back buffer -- and
+    the blocks drawn are noted in drawnColumns, so
+    repaintChangedRows() can ask for just the rows that changed.
      */
     public void paintComponent(Graphics g) {
+        final Board board = paintedBoard();
 
         // Draw a rect around the whole thing
         g.drawRect(0, 0, getWidth()-1, getHeight()-1);
@@ -473,48 +531,111 @@ public class JTetris extends JComponent {
         int spacerY = yPixel(board.getHeight() - TOP_SPACE - 1);
         g.drawLine(0, spacerY, getWidth()-1, spacerY);
 
+        // Factor a few things out to help the optimizer
+        final int dx = Math.round(dX()-2);
+        final int dy = Math.round(dY()-2);
+        final int bWidth = board.getWidth();
+        final int bHeight = board.getHeight();
+
+        // work out the pixel coords once per size
+        if (drawnColumns == null || drawnColumns.length != bWidth || rowTop.length != bHeight
+                || drawnWidth != getWidth() || drawnHeight != getHeight()) {
+            drawnColumns = new long[bWidth];
+            columnLeft = new int[bWidth+1];
+            for (int x=0; x<=bWidth; x++) {
+                columnLeft[x] = xPixel(x);
+            }
+            rowTop = new int[bHeight];
+            for (int y=0; y<bHeight; y++) {
+                rowTop[y] = yPixel(y);
+            }
+            drawnWidth = getWidth();
+            drawnHeight = getHeight();
+        }
+
         // check if we are drawing with clipping
-        //Shape shape = g.getClip();
         Rectangle clip = null;
         if (DRAW_OPTIMIZE) {
             clip = g.getClipBounds();
         }
 
-        // Factor a few things out to help the optimizer
-        final int dx = Math.round(dX()-2);
-        final int dy = Math.round(dY()-2);
-        final int bWidth = board.getWidth();
-        final int bHeight = board.getHeight();
+        // the rows to draw (bit y for row y), and the rows the
+        // screen will then show all of
+        long rows = (1L << bHeight) - 1;
+        long shown = rows;
+        if (clip != null) {
+            rows = 0;
+            shown = 0;
+            for (int y=0; y<bHeight; y++) {
+                final int top = rowTop[y];
+                final int bottom = (y == 0) ? getHeight()-1 : rowTop[y-1];
+                if (bottom > clip.y && top < clip.y+clip.height) rows |= 1L << y;
+                if (top >= clip.y && bottom <= clip.y+clip.height) shown |= 1L << y;
+            }
+        }
+
+        // the rows filled all the way across
+        long filled = rows;
+        for (int x=0; x<bWidth; x++) {
+            filled &= board.getColumnBits(x);
+        }
 
-        int x, y;
         // Loop through and draw all the blocks
         // left-right, bottom-top
-        for (x=0; x<bWidth; x++) {
-            int left = xPixel(x); // the left pixel
+        for (int x=0; x<bWidth; x++) {
+            final int left = columnLeft[x]; // the left pixel
 
             // right pixel (useful for clip optimization)
-            int right = xPixel(x+1) -1;
+            final int right = columnLeft[x+1] -1;
 
             // skip this x if it is outside the clip rect
-            if (DRAW_OPTIMIZE && clip!=null) {
+            if (clip!=null) {
                 if ((right<clip.x) || (left>=(clip.x+clip.width))) continue;
             }
 
-            // draw from 0 up to the col height
-            final int yHeight = board.getColumnHeight(x);
-            for (y=0; y<yHeight; y++) {
-                if (board.getGrid(x, y)) {
-                    final boolean filled = (board.getRowWidth(y)==bWidth);
-                    if (filled) g.setColor(Color.green);
+            long bits = board.getColumnBits(x);
+            drawnColumns[x] = (drawnColumns[x] & ~shown) | (bits & shown);
 
-                    g.fillRect(left+1, yPixel(y)+1, dx, dy); // +1 to leave a white border
+            // draw the blocks of the column, bottom-top
+            bits &= rows;
+            while (bits != 0) {
+                final int y = Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                final boolean full = ((filled >>> y) & 1) != 0;
+                if (full) g.setColor(Color.green);
 
-                    if (filled) g.setColor(Color.black);
-                }
+                g.fillRect(left+1, rowTop[y]+1, dx, dy); // +1 to leave a white border
+
+                if (full) g.setColor(Color.black);
             }
         }
     }
 
+    /*
+    Generates a repaint for just the rows of the board that are
+    not on the screen as they are now, or nothing if they all are.
+    Cheaper than repaint() when most of the board stays put, as it
+    does between two frames of a fast game.
+     */
+    public void repaintChangedRows() {
+        final Board board = paintedBoard();
+        if (drawnColumns == null || drawnColumns.length != board.getWidth()) {
+            repaint();
+            return;
+        }
+        long changed = 0;
+        for (int x=0; x<board.getWidth(); x++) {
+            changed |= board.getColumnBits(x) ^ drawnColumns[x];
+        }
+        changed &= (1L << board.getHeight()) - 1; // the rows above are off the top
+        if (changed == 0) return;
+
+        final int lowest = Long.numberOfTrailingZeros(changed);
+        final int highest = 63 - Long.numberOfLeadingZeros(changed);
+        final int top = yPixel(highest);
+        repaint(0, top, getWidth(), yPixel(lowest-1) - top);
+    }
+
     /*
     Updates the timer to reflect the current setting of the 
     speed slider.
@@ -65,6 +65,8 @@ public class JTetrisTrain extends JComponent {
     protected int count;  // how many pieces played so far
     protected long startTime; // used to measure elapsed time
     protected Random random; // the random generator for new pieces
+    protected PieceQueue preview; // pieces already picked, waiting to be played
+    protected int previewSize; // how many upcoming pieces are shown to the brain
     protected int gamesPlayed;  // how many games we've played (used for optimizing)
 
     // Controls
@@ -81,6 +83,8 @@ public class JTetrisTrain extends JComponent {
 
         pieces = Piece.getPieces();
         board = new Board(WIDTH, HEIGHT + TOP_SPACE);
+        previewSize = 0;
+        preview = new PieceQueue(1);
 
         // Create the Timer object and have it send
         // tick(DOWN) periodically
@@ -115,6 +119,7 @@ public class JTetrisTrain extends JComponent {
         board = new Board(WIDTH, HEIGHT + TOP_SPACE);
 
         count = 0;
+        preview.clear();
         gameOn = true;
 
         if (testMode) 
@@ -169,6 +174,32 @@ public class JTetrisTrain extends JComponent {
         return(piece);
     }
 
+    /*
+    Returns the piece to put in play next. Without a preview
+    this is just pickNextPiece(). With one, pieces are picked
+    previewSize pieces ahead of time and handed out in order,
+    so the brain can see what is coming.
+     */
+    public Piece takeNextPiece() {
+        if (previewSize == 0) {
+            return pickNextPiece();
+        }
+        while (preview.size() <= previewSize) {
+            preview.add(pickNextPiece());
+        }
+        return preview.take();
+    }
+
+    /*
+    Sets how many upcoming pieces are picked ahead of time and
+    shown to a PreviewBrain. 0 turns the preview off.
+    Pieces already picked are thrown away.
+     */
+    public void setPreviewSize(int n) {
+        previewSize = Math.max(n, 0);
+        preview = new PieceQueue(previewSize + 1);
+    }
+
     /*
     Tries to add a new random at the top of the board.
     Ends the game if it's not possible.
@@ -181,7 +212,7 @@ public class JTetrisTrain extends JComponent {
             return;
         }
 
-        Piece piece = pickNextPiece();
+        Piece piece = takeNextPiece();
 
         // Center it up at the top
         int px = (board.getWidth() - piece.getWidth())/2;
@@ -324,6 +355,7 @@ public class JTetrisTrain extends JComponent {
         // Could create a JTetris or JBrainTetris here
         final int pixels = 16;
         final int trials = 100;
+        Metrics.startDump();
 
         //paramaters in order: maxHeight, touchingWall, holes, roughness, aggregateHeight
         JBrainNoGraphics tetris = new JBrainNoGraphics(WIDTH*pixels+2, (HEIGHT+TOP_SPACE)*pixels+2, Double.parseDouble(args[0]), 
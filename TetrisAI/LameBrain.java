@@ -9,9 +9,21 @@
  play with the lowest score. Undo() is used to back-out
  each play before trying the next. To experiment with writing your own
  brain -- just subclass off LameBrain and override rateBoard().
+ setRater() swaps in another rater, e.g. rateBoard() behind an
+ EvaluationCache.
 */
 
-public class LameBrain implements Brain {
+public class LameBrain implements RatedBrain, BoardRater {
+ private BoardRater rater = this; // what bestMove() rates the plays with
+
+ public BoardRater getRater() {
+  return rater;
+ }
+
+ public void setRater(BoardRater rater) {
+  this.rater = rater;
+ }
+
  /*
   Given a piece and a board, returns a move object that represents
   the best play for that piece, or returns null if no play is possible.
@@ -26,6 +38,7 @@ public class LameBrain implements Brain {
   int bestY = 0;
   Piece bestPiece = null;
   Piece current = piece;
+  int considered = 0; // legal plays, for Metrics
   
   // loop through all the rotations
   while (true) {
@@ -36,11 +49,12 @@ public class LameBrain implements Brain {
    for (int x = 0; x<xBound; x++) {
     int y = board.dropHeight(current, x);
     if (y<yBound) { // piece does not stick up too far
+     considered++;
      int result = board.place(current, x, y);
      if (result <= Board.PLACE_ROW_FILLED) {
       if (result == Board.PLACE_ROW_FILLED) board.clearRows();
       
-      double score = rateBoard(board);
+      double score = rater.rateBoard(board);
       
       if (score<bestScore) {
        bestScore = score;
@@ -58,6 +72,7 @@ public class LameBrain implements Brain {
    if (current == piece) break; // break if back to original rotation
   }
   
+  if (Metrics.ENABLED) Metrics.CANDIDATES.add(considered);
   if (bestPiece == null) return(null); // could not find a play at all!
   else {
    move.x=bestX;
@@ -78,6 +93,7 @@ public class LameBrain implements Brain {
   See Tetris-Architecture.html for brain ideas.
  */
  public double rateBoard(Board board) {
+  if (Metrics.ENABLED) Metrics.EVALUATIONS.increment();
   final int width = board.getWidth();
   final int maxHeight = board.getMaxHeight();
   
@@ -0,0 +1,132 @@
+/*
+ A two piece lookahead brain.
+
+ When the game shows the next piece, every play of the current
+ piece is followed by every play of the next piece, and the current
+ play is scored by the best board reachable after both.
+ The plays of the current piece are first rated one ply deep
+ (place/clearRows/undo, like LameBrain) and searched best first,
+ so when the time budget runs out the plays that are skipped are
+ the ones that looked worst anyway.
+
+ Without a preview it plays exactly like its rater would.
+ Called as an AnytimeBrain the game's budget replaces its own.
+*/
+public class LookaheadBrain implements AnytimeBrain, RatedBrain {
+    private BoardRater rater;
+    private long budgetNanos;
+    private SearchBudget ownBudget;
+
+    // reused between calls so a search does not allocate
+    private Placements first;
+    private Placements second;
+    private Board scratch;
+
+
+    /*
+     Uses the default ErikWurmanSinaBakhtiariBrain weights
+     and a 20ms budget per piece.
+    */
+    public LookaheadBrain() {
+        this(new ErikWurmanSinaBakhtiariBrain(), 20);
+    }
+
+
+    /*
+     budgetMillis bounds the time spent on the second ply for
+     one piece, 0 for no limit. The best looking play is always
+     searched.
+    */
+    public LookaheadBrain(BoardRater rater, long budgetMillis) {
+        this.rater = rater;
+        budgetNanos = budgetMillis * 1000000L;
+        ownBudget = new SearchBudget();
+        first = new Placements();
+        second = new Placements();
+    }
+
+
+    public void setBudgetMillis(long budgetMillis) {
+        budgetNanos = budgetMillis * 1000000L;
+    }
+
+
+    public BoardRater getRater() {
+        return rater;
+    }
+
+
+    public void setRater(BoardRater rater) {
+        this.rater = rater;
+    }
+
+
+    public Brain.Move bestMove(Board board, Piece piece, int limitHeight, Brain.Move move) {
+        return bestMove(board, piece, null, 0, limitHeight, move);
+    }
+
+
+    public Brain.Move bestMove(Board board, Piece piece, Piece[] preview, int previewCount,
+                               int limitHeight, Brain.Move move) {
+        return bestMove(board, piece, preview, previewCount, limitHeight, move,
+                        ownBudget.resetNanos(budgetNanos, 0));
+    }
+
+
+    public Brain.Move bestMove(Board board, Piece piece, Piece[] preview, int previewCount,
+                               int limitHeight, Brain.Move move, SearchBudget budget) {
+        if (first.generate(board, piece, limitHeight, rater) == 0) {
+            return(null); // could not find a play at all!
+        }
+        first.sortByScore();
+
+        int bestIndex = 0;
+        double bestScore = first.score(0);
+
+        if (previewCount > 0) {
+            final Piece next = preview[0];
+            double bestDeep = 1e20;
+            for (int i = 0; i < first.size(); i++) {
+                if (i > 0 && budget != null && budget.exhausted()) break; // out of time
+                double score = secondPly(board, i, next, limitHeight);
+                if (budget != null) budget.spend(second.size());
+                if (score < bestDeep) {
+                    bestDeep = score;
+                    bestIndex = i;
+                }
+            }
+            // if no play survives the next piece, bestIndex stays 0
+            if (bestDeep < 1e20) bestScore = bestDeep;
+        }
+
+        if (move==null) move = new Brain.Move();
+        move.x = first.x(bestIndex);
+        move.y = first.y(bestIndex);
+        move.piece = first.piece(bestIndex);
+        move.score = bestScore;
+        return(move);
+    }
+
+
+    /*
+     Plays the i'th first ply play on a scratch copy of the board,
+     then returns the best score over all plays of the next piece,
+     or 1e20 if the next piece cannot be played at all.
+    */
+    private double secondPly(Board board, int i, Piece next, int limitHeight) {
+        if (scratch == null || scratch.getWidth() != board.getWidth()
+                || scratch.getHeight() != board.getHeight()) {
+            scratch = new Board(board.getWidth(), board.getHeight());
+        }
+        scratch.copyFrom(board);
+        first.apply(scratch, i);
+        scratch.commit();
+
+        int n = second.generate(scratch, next, limitHeight, rater);
+        double best = 1e20;
+        for (int j = 0; j < n; j++) {
+            if (second.score(j) < best) best = second.score(j);
+        }
+        return best;
+    }
+}
@@ -0,0 +1,494 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ A parallel Monte Carlo tree search brain.
+
+ The tree alternates two kinds of node. A play node has a piece to
+ play and one child per place that piece can go. Each child is a
+ chance node: the board after that play, still waiting for the next
+ piece. Its children are play nodes, one per piece that can come
+ next -- just the known one while the game's preview lasts, all 7
+ after that, picked at random on the way down. A leaf is scored by
+ the rater, and every node keeps the mean score of the leaves below
+ it. Play nodes pick the child with the best mean, minus an
+ exploration bonus for children that have been tried less.
+
+ Many threads grow the one tree at the same time:
+ - nodes live in a preallocated arena of parallel primitive arrays
+   indexed by node number, so there is no object per node and a
+   tree of millions of nodes costs ~32 bytes each;
+ - visit counts and score sums are atomic array slots, updated
+   without locks;
+ - a thread adds a "virtual loss" to every node on its path while
+   it is down there, so other threads spread out to other lines;
+ - boards are not stored in the tree. Each thread replays the plays
+   on its path onto its own board, starting from the root;
+ - the rater's rateBoard() is called from every thread at once,
+   so it must not keep state. LameBrain's and
+   ErikWurmanSinaBakhtiariBrain's do not (the latter's bestMove()
+   does, but the tree only ever asks the rater to rate).
+ The move returned is the most visited play of the current piece.
+*/
+public class MctsBrain implements AnytimeBrain {
+    // score of a board where the piece could not be played at all
+    public static final double LOST = 1e6;
+
+    // node states
+    private static final int NEW = 0;
+    private static final int EXPANDING = 1;
+    private static final int EXPANDED = 2;
+    private static final int DEAD = 3;
+
+    private static final int VIRTUAL_LOSS = 3;
+    private static final double SCALE = 1024.0; // fixed point for the score sums
+
+    private BoardRater rater;
+    private int capacity;
+    private int threads;
+    private int maxPlies;
+    private long maxSimulations;
+    private double c;
+
+    // the arena
+    private int[] first;        // first child, children are consecutive
+    private int[] count;        // number of children
+    private int[] move;         // play node: piece rotation; chance node: packed play
+    private float[] prior;      // chance node: rating of the board after the play
+    private AtomicIntegerArray state;
+    private AtomicIntegerArray visits;
+    private AtomicLongArray scoreSum; // fixed point
+    private AtomicInteger used;
+
+    private Piece[] rotations;  // piece id * 4 + rotation -> Piece
+
+    // set up by the calling thread for each search
+    private Board rootBoard;
+    private Piece[] searchPreview;
+    private int searchPreviewCount;
+    private int searchLimit;
+    private double explore;
+    private double lossScore;
+    private SearchBudget searchBudget; // only touched by the calling thread
+    private volatile boolean timeUp;
+    private int spent;                 // simulations charged to the budget
+    private AtomicInteger simulations;
+
+    private Worker[] workers;   // workers[0] runs on the calling thread
+    private volatile RuntimeException failure; // thrown by a helper thread
+
+
+    /*
+     A million node tree on every core, 4 pieces deep and at
+     most 20000 simulations a piece.
+    */
+    public MctsBrain() {
+        this(new ErikWurmanSinaBakhtiariBrain(), 1 << 20,
+             Runtime.getRuntime().availableProcessors(), 4, 20000);
+    }
+
+
+    public MctsBrain(BoardRater rater, int capacity, int threads, int maxPlies, long maxSimulations) {
+        this.rater = rater;
+        this.capacity = capacity;
+        this.threads = Math.max(threads, 1);
+        this.maxPlies = Math.max(maxPlies, 1);
+        this.maxSimulations = maxSimulations;
+        c = 0.5;
+        first = new int[capacity];
+        count = new int[capacity];
+        move = new int[capacity];
+        prior = new float[capacity];
+        state = new AtomicIntegerArray(capacity);
+        visits = new AtomicIntegerArray(capacity);
+        scoreSum = new AtomicLongArray(capacity);
+        used = new AtomicInteger();
+        simulations = new AtomicInteger();
+
+        rotations = new Piece[Piece.getPieces().length * 4];
+        for (int id = 0; id < Piece.getPieces().length; id++) {
+            for (int r = 0; r < 4; r++) {
+                rotations[id * 4 + r] = Piece.getPiece(id, r);
+            }
+        }
+    }
+
+
+    /*
+     Sets the exploration constant, as a fraction of the spread of
+     the ratings of the current piece's plays.
+    */
+    public void setExploration(double c) {
+        this.c = c;
+    }
+
+
+    /*
+     Returns the number of nodes the last search used.
+    */
+    public int getNodesUsed() {
+        return Math.min(used.get(), capacity);
+    }
+
+
+    public Brain.Move bestMove(Board board, Piece piece, int limitHeight, Brain.Move move) {
+        return bestMove(board, piece, null, 0, limitHeight, move, null);
+    }
+
+
+    public Brain.Move bestMove(Board board, Piece piece, Piece[] preview, int previewCount,
+                               int limitHeight, Brain.Move move) {
+        return bestMove(board, piece, preview, previewCount, limitHeight, move, null);
+    }
+
+
+    public Brain.Move bestMove(Board board, Piece piece, Piece[] preview, int previewCount,
+                               int limitHeight, Brain.Move bestMove, SearchBudget budget) {
+        ensureWorkers(board);
+        rootBoard.copyFrom(board);
+        searchPreview = preview;
+        searchPreviewCount = previewCount;
+        searchLimit = limitHeight;
+
+        // the root is a play node for the current piece, expanded here
+        used.set(0);
+        int root = alloc(1);
+        initNode(root, rotationIndex(piece));
+        if (!workers[0].expandPlay(root, rootBoard)) {
+            return(null); // could not find a play at all!
+        }
+
+        // scale the exploration to how different the plays look
+        double lo = Double.MAX_VALUE;
+        double hi = -Double.MAX_VALUE;
+        for (int i = first[root]; i < first[root] + count[root]; i++) {
+            lo = Math.min(lo, prior[i]);
+            hi = Math.max(hi, prior[i]);
+        }
+        explore = c * Math.max(hi - lo, 1.0);
+        lossScore = hi + explore;
+
+        if (count[root] > 1) {
+            searchBudget = budget;
+            timeUp = false;
+            simulations.set(0);
+            spent = 0;
+            runWorkers();
+            if (budget != null) budget.spend(Math.min(simulations.get(), maxSimulations) - spent);
+            searchBudget = null;
+        }
+
+        // the most visited play, the best prior if none was visited
+        int best = first[root];
+        for (int i = first[root]; i < first[root] + count[root]; i++) {
+            int v = visits.get(i);
+            int bv = visits.get(best);
+            if (v > bv || (v == bv && prior[i] < prior[best])) best = i;
+        }
+        searchPreview = null;
+
+        if (bestMove==null) bestMove = new Brain.Move();
+        int m = move[best];
+        bestMove.piece = rotations[m >>> 16];
+        bestMove.x = (m >>> 8) & 0xFF;
+        bestMove.y = m & 0xFF;
+        bestMove.score = visits.get(best) > 0 ? mean(best) : prior[best];
+        return(bestMove);
+    }
+
+
+    /*
+     Runs the workers until the budget or the simulation limit
+     runs out. The other workers get a thread each for just this
+     search, and are joined before it returns -- a brain that is
+     not searching holds no threads, so one that is dropped (a
+     brain loaded over it, a game that ended) is simply collected.
+    */
+    private void runWorkers() {
+        if (workers.length == 1) {
+            workers[0].search();
+            return;
+        }
+        failure = null;
+        Thread[] helpers = new Thread[workers.length - 1];
+        for (int w = 1; w < workers.length; w++) {
+            helpers[w - 1] = new Thread(workers[w], "MctsBrain-" + w);
+            helpers[w - 1].setDaemon(true);
+            helpers[w - 1].start();
+        }
+        try {
+            workers[0].search();
+        }
+        finally {
+            timeUp = true; // if the calling thread failed, stop the others too
+            try {
+                for (int w = 0; w < helpers.length; w++) {
+                    helpers[w].join();
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted during search");
+            }
+        }
+        if (failure != null) {
+            throw new RuntimeException("Search worker failed", failure);
+        }
+    }
+
+
+    private void ensureWorkers(Board board) {
+        if (workers == null || rootBoard.getWidth() != board.getWidth()
+                || rootBoard.getHeight() != board.getHeight()) {
+            rootBoard = new Board(board.getWidth(), board.getHeight());
+            workers = new Worker[threads];
+            for (int w = 0; w < threads; w++) {
+                workers[w] = new Worker(board.getWidth(), board.getHeight(), 0x9E3779B97F4A7C15L * (w + 1));
+            }
+        }
+    }
+
+
+    /*
+     Takes n consecutive nodes from the arena. Returns -1 when
+     the arena is full -- the tree then just stops growing.
+    */
+    private int alloc(int n) {
+        if (used.get() >= capacity) return -1;
+        int at = used.getAndAdd(n);
+        if (at + n > capacity) return -1;
+        return at;
+    }
+
+
+    private void initNode(int node, int m) {
+        first[node] = -1;
+        count[node] = 0;
+        move[node] = m;
+        prior[node] = 0;
+        visits.set(node, 0);
+        scoreSum.set(node, 0);
+        state.set(node, NEW);
+    }
+
+
+    private int rotationIndex(Piece piece) {
+        return piece.getId() * 4 + piece.getRotation();
+    }
+
+
+    private double mean(int node) {
+        return scoreSum.get(node) / SCALE / visits.get(node);
+    }
+
+
+    /*
+     One search thread: its own board, plays list, path and
+     random state.
+    */
+    private final class Worker implements Runnable {
+        Board board;
+        Placements plays;
+        int[] path;
+        long seed;
+
+        Worker(int width, int height, long seed) {
+            board = new Board(width, height);
+            plays = new Placements();
+            path = new int[2 * maxPlies + 2];
+            this.seed = seed;
+        }
+
+        public void run() {
+            try {
+                search();
+            }
+            catch (RuntimeException e) {
+                failure = e;
+                timeUp = true;
+            }
+        }
+
+        /*
+         Runs simulations until the limit is reached or time is up.
+         A SearchBudget is not thread safe, so only the calling
+         thread's worker spends and checks it, one node per
+         simulation, and tells the others through timeUp.
+        */
+        void search() {
+            final SearchBudget budget = searchBudget;
+            while (!timeUp && simulations.getAndIncrement() < maxSimulations) {
+                if (this == workers[0] && budget != null) {
+                    int done = simulations.get();
+                    if (budget.spend(done - spent)) timeUp = true;
+                    spent = done;
+                }
+                simulate();
+            }
+        }
+
+        /*
+         Walks down from the root to a leaf, expanding it, and
+         backs the leaf's score up the path.
+        */
+        void simulate() {
+            board.copyFrom(rootBoard);
+            int len = 0;
+            int node = 0; // the root
+            int ply = 0;
+            double leaf;
+            while (true) {
+                // play node
+                path[len++] = node;
+                addVirtualLoss(node);
+                int s = state.get(node);
+                if (s == DEAD) {
+                    leaf = LOST;
+                    break;
+                }
+                if (s != EXPANDED) {
+                    if (s == NEW && state.compareAndSet(node, NEW, EXPANDING)) {
+                        if (!expandPlay(node, board)) {
+                            leaf = (state.get(node) == DEAD) ? LOST : rater.rateBoard(board);
+                            break;
+                        }
+                        // score the new node by its best looking play
+                        int best = first[node];
+                        for (int i = best + 1; i < first[node] + count[node]; i++) {
+                            if (prior[i] < prior[best]) best = i;
+                        }
+                        path[len++] = best;
+                        addVirtualLoss(best);
+                        leaf = prior[best];
+                    }
+                    else {
+                        // another thread is expanding it -- just rate the board
+                        leaf = rater.rateBoard(board);
+                    }
+                    break;
+                }
+
+                int chance = select(node);
+                path[len++] = chance;
+                addVirtualLoss(chance);
+                play(move[chance]);
+                ply++;
+
+                // chance node
+                if (ply >= maxPlies) {
+                    leaf = rater.rateBoard(board);
+                    break;
+                }
+                s = state.get(chance);
+                if (s != EXPANDED) {
+                    if (s == NEW && state.compareAndSet(chance, NEW, EXPANDING)) {
+                        expandChance(chance, ply);
+                    }
+                    if (state.get(chance) != EXPANDED) {
+                        leaf = rater.rateBoard(board);
+                        break;
+                    }
+                }
+                if (count[chance] == 1) {
+                    node = first[chance];
+                }
+                else {
+                    seed ^= seed << 13;
+                    seed ^= seed >>> 7;
+                    seed ^= seed << 17;
+                    node = first[chance] + (int) ((seed >>> 1) % count[chance]);
+                }
+            }
+
+            // back up the score and take the virtual loss off again
+            final long add = (long) (leaf * SCALE);
+            final long loss = (long) (lossScore * SCALE) * VIRTUAL_LOSS;
+            for (int i = 0; i < len; i++) {
+                visits.addAndGet(path[i], 1 - VIRTUAL_LOSS);
+                scoreSum.addAndGet(path[i], add - loss);
+            }
+        }
+
+        /*
+         Gives a play node one chance node child per play of its
+         piece on the board. Returns false if it could not: the node
+         is marked dead if the piece cannot be played, and left new
+         if the arena is full.
+        */
+        boolean expandPlay(int node, Board on) {
+            int n = plays.generate(on, rotations[move[node]], searchLimit, rater);
+            if (n == 0) {
+                state.set(node, DEAD);
+                return false;
+            }
+            int at = alloc(n);
+            if (at < 0) {
+                state.set(node, NEW); // arena full, stays a leaf
+                return false;
+            }
+            for (int i = 0; i < n; i++) {
+                Piece p = plays.piece(i);
+                initNode(at + i, (rotationIndex(p) << 16) | (plays.x(i) << 8) | plays.y(i));
+                prior[at + i] = (float) plays.score(i);
+            }
+            first[node] = at;
+            count[node] = n;
+            state.set(node, EXPANDED);
+            return true;
+        }
+
+        /*
+         Gives a chance node its play node children: the known
+         next piece while the preview lasts, else all 7.
+        */
+        void expandChance(int node, int ply) {
+            boolean known = ply - 1 < searchPreviewCount;
+            int n = known ? 1 : Piece.getPieces().length;
+            int at = alloc(n);
+            if (at < 0) {
+                state.set(node, NEW); // arena full, stays a leaf
+                return;
+            }
+            for (int i = 0; i < n; i++) {
+                int id = known ? searchPreview[ply - 1].getId() : i;
+                initNode(at + i, id * 4);
+            }
+            first[node] = at;
+            count[node] = n;
+            state.set(node, EXPANDED);
+        }
+
+        /*
+         Picks the chance node child with the lowest mean score,
+         less an exploration bonus for rarely visited children.
+         Unvisited children count as their prior rating.
+        */
+        int select(int node) {
+            final double logN = Math.log(visits.get(node) + 1);
+            int best = -1;
+            double bestValue = Double.MAX_VALUE;
+            for (int i = first[node]; i < first[node] + count[node]; i++) {
+                int v = visits.get(i);
+                double q = (v > 0) ? mean(i) : prior[i];
+                double value = q - explore * Math.sqrt(logN / (v + 1));
+                if (value < bestValue) {
+                    bestValue = value;
+                    best = i;
+                }
+            }
+            return best;
+        }
+
+        void addVirtualLoss(int node) {
+            visits.addAndGet(node, VIRTUAL_LOSS);
+            scoreSum.addAndGet(node, (long) (lossScore * SCALE) * VIRTUAL_LOSS);
+        }
+
+        void play(int m) {
+            int result = board.place(rotations[m >>> 16], (m >>> 8) & 0xFF, m & 0xFF);
+            if (result == Board.PLACE_ROW_FILLED) board.clearRows();
+            board.commit();
+        }
+    }
+}
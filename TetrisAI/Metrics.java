@@ -0,0 +1,173 @@
+import java.io.PrintStream;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ Counters for the hot path of the game and the brains: how many
+ plays the brain considered and rated, how often the board was
+ placed on, undone and had rows cleared, how long each decision
+ took and how long each game went on.
+
+ Off unless the JVM is started with -Dtetris.metrics=true. The
+ switch is a static final, like Board's DEBUG, so with it off the
+ JIT drops every "if (Metrics.ENABLED)" and its counting entirely.
+ With it on, the counters are LongAdders, which many game threads
+ can bump at once without fighting over one cache line.
+
+ Who counts what in the brain loop: a play is a candidate when
+ the loop that tries them finds it legal -- LameBrain.bestMove()
+ (so its subclasses, and the copies in JBrainNoGraphics and
+ JBrainTetris), Placements.generate() (so every search brain's
+ plays, Lookahead, Expectimax, Beam, Minimax, MonteCarlo and Mcts)
+ and ErikWurmanSinaBakhtiariBrain's own loop. An evaluation is
+ counted by the rater itself, once per call: the rateBoard() of
+ LameBrain, JBrainNoGraphics, JBrainTetris and EWSB, and EWSB's
+ incremental and cutoff ratings. Left out are a rating an
+ EvaluationCache answers from memory, MonteCarloBrain's greedy
+ rollout policy, and any other BoardRater, which counts nothing
+ unless it bumps EVALUATIONS too.
+
+ Read them any time straight off the fields and histograms here,
+ or as text with report(). startDump() prints the report every
+ so often, with per second rates since the last one -- enough to
+ tell a run that is busy rating boards from one stuck in a few
+ long games.
+*/
+public final class Metrics {
+    public static final boolean ENABLED = Boolean.getBoolean("tetris.metrics");
+
+    // the brain loop
+    public static final LongAdder CANDIDATES = new LongAdder();  // plays considered
+    public static final LongAdder EVALUATIONS = new LongAdder(); // plays rated
+    public static final LongAdder PLACES = new LongAdder();
+    public static final LongAdder UNDOS = new LongAdder();
+    public static final LongAdder CLEARS = new LongAdder();      // clearRows() that cleared something
+    public static final LongAdder ROWS_CLEARED = new LongAdder();
+
+    // the game loop
+    public static final LongAdder MOVES = new LongAdder();       // decisions asked of the player's brain
+    public static final LongAdder GAMES = new LongAdder();
+    public static final Histogram MOVE_NANOS = new Histogram();  // wall time of each decision
+    public static final Histogram GAME_PIECES = new Histogram(); // length of each game
+
+    private static Thread dumper;
+
+
+    private Metrics() {
+    }
+
+
+    /*
+     Returns the current values as text, one "name value" per line.
+    */
+    public static String report() {
+        StringBuilder s = new StringBuilder();
+        line(s, "candidates", CANDIDATES.sum());
+        line(s, "evaluations", EVALUATIONS.sum());
+        line(s, "places", PLACES.sum());
+        line(s, "undos", UNDOS.sum());
+        line(s, "clears", CLEARS.sum());
+        line(s, "rows_cleared", ROWS_CLEARED.sum());
+        line(s, "moves", MOVES.sum());
+        line(s, "games", GAMES.sum());
+        histogram(s, "move_nanos", MOVE_NANOS);
+        histogram(s, "game_pieces", GAME_PIECES);
+        return s.toString();
+    }
+
+
+    /*
+     Zeroes every counter and histogram.
+    */
+    public static void reset() {
+        CANDIDATES.reset();
+        EVALUATIONS.reset();
+        PLACES.reset();
+        UNDOS.reset();
+        CLEARS.reset();
+        ROWS_CLEARED.reset();
+        MOVES.reset();
+        GAMES.reset();
+        MOVE_NANOS.reset();
+        GAME_PIECES.reset();
+    }
+
+
+    /*
+     Prints report() to out every periodMillis on a daemon thread,
+     followed by rates per second since the previous dump. Only one
+     dump runs at a time; calling this again replaces it, and
+     stopDump() ends it.
+    */
+    public static synchronized void startDump(final long periodMillis, final PrintStream out) {
+        stopDump();
+        dumper = new Thread(new Runnable() {
+            public void run() {
+                long lastTime = System.nanoTime();
+                long lastEvaluations = EVALUATIONS.sum();
+                long lastMoves = MOVES.sum();
+                long lastGames = GAMES.sum();
+                try {
+                    while (true) {
+                        Thread.sleep(periodMillis);
+                        long now = System.nanoTime();
+                        long evaluations = EVALUATIONS.sum();
+                        long moves = MOVES.sum();
+                        long games = GAMES.sum();
+                        double seconds = (now - lastTime) / 1e9;
+                        StringBuilder s = new StringBuilder(report());
+                        line(s, "evaluations_per_sec", Math.round((evaluations - lastEvaluations) / seconds));
+                        line(s, "moves_per_sec", Math.round((moves - lastMoves) / seconds));
+                        line(s, "games_per_sec", Math.round((games - lastGames) / seconds));
+                        out.print(s);
+                        out.println();
+                        out.flush();
+                        lastTime = now;
+                        lastEvaluations = evaluations;
+                        lastMoves = moves;
+                        lastGames = games;
+                    }
+                }
+                catch (InterruptedException e) {
+                    // stopped
+                }
+            }
+        }, "Metrics");
+        dumper.setDaemon(true);
+        dumper.start();
+    }
+
+
+    /*
+     What the mains call: if metrics are on, dumps to System.err
+     every -Dtetris.metrics.period milliseconds, 10 seconds if not
+     given.
+    */
+    public static void startDump() {
+        if (ENABLED) {
+            startDump(Long.getLong("tetris.metrics.period", 10000L), System.err);
+        }
+    }
+
+
+    public static synchronized void stopDump() {
+        if (dumper != null) {
+            dumper.interrupt();
+            dumper = null;
+        }
+    }
+
+
+    private static void line(StringBuilder s, String name, long value) {
+        s.append(name).append(' ').append(value).append('\n');
+    }
+
+
+    private static void histogram(StringBuilder s, String name, Histogram h) {
+        line(s, name + "_count", h.getCount());
+        line(s, name + "_mean", Math.round(h.getMean()));
+        line(s, name + "_p50", h.getPercentile(50));
+        line(s, name + "_p99", h.getPercentile(99));
+        line(s, name + "_p999", h.getPercentile(99.9));
+        line(s, name + "_max", h.getMax());
+    }
+}
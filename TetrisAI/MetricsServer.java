@@ -0,0 +1,164 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/*
+ Serves a FarmStats, and the hot-path Metrics when they are on,
+ at http://localhost:port/metrics in the Prometheus text format,
+ so a long tuning run can be watched (or scraped) while it goes.
+
+ It uses the HTTP server built into the JDK, listens on the
+ loopback address only, and answers on one daemon thread of its
+ own. A scrape only reads counters the workers update without
+ locks, so it never holds a worker up.
+
+ pieces/sec is worked out between two scrapes; Prometheus itself
+ would rather take rate() of tetris_pieces_total.
+*/
+public final class MetricsServer {
+    private final FarmStats stats;
+    private final HttpServer server;
+    private final ExecutorService thread;
+
+    // for pieces/sec: the pieces and time at the last scrape
+    private long lastPieces;
+    private long lastNanos;
+
+
+    /*
+     Starts serving stats on the given port of localhost.
+    */
+    public MetricsServer(FarmStats stats, int port) throws IOException {
+        this.stats = stats;
+        lastPieces = stats.getPieces();
+        lastNanos = System.nanoTime();
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        thread = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "MetricsServer");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        server.setExecutor(thread);
+        server.createContext("/metrics", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+    }
+
+
+    /*
+     If -Dtetris.metrics.port is set, starts a server for stats on
+     that port and returns it, else returns null.
+    */
+    public static MetricsServer startIfConfigured(FarmStats stats) {
+        Integer port = Integer.getInteger("tetris.metrics.port");
+        if (port == null) return null;
+        try {
+            return new MetricsServer(stats, port);
+        }
+        catch (IOException e) {
+            System.err.println("Could not serve metrics on port "+port+": "+e);
+            return null;
+        }
+    }
+
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+
+    /*
+     Stops serving, so the JVM can exit.
+    */
+    public void stop() {
+        server.stop(0);
+        thread.shutdown();
+    }
+
+
+    /*
+     Returns the page a scrape gets. Called on the server's thread.
+    */
+    String scrape() {
+        StringBuilder s = new StringBuilder();
+        long pieces = stats.getPieces();
+        long now = System.nanoTime();
+        double seconds = (now - lastNanos) / 1e9;
+        double perSecond = (seconds > 0) ? (pieces - lastPieces) / seconds : 0;
+        lastPieces = pieces;
+        lastNanos = now;
+
+        metric(s, "tetris_games_completed_total", "counter", "Games played to the end.", stats.getGames());
+        metric(s, "tetris_pieces_total", "counter", "Pieces played in all games.", pieces);
+        metric(s, "tetris_pieces_per_second", "gauge", "Pieces played per second since the last scrape.", perSecond);
+        metric(s, "tetris_active_workers", "gauge", "Threads playing games right now.", stats.getActiveWorkers());
+        metric(s, "tetris_queue_depth", "gauge", "Games waiting to be played.", stats.getQueueDepth());
+
+        FarmStats.Best best = stats.getBest();
+        if (best != null) {
+            metric(s, "tetris_best_score", "gauge", "Score of the best weights so far.", best.score);
+            header(s, "tetris_best_weight", "gauge", "The best weights so far.");
+            for (int i = 0; i < best.weights.length; i++) {
+                s.append("tetris_best_weight{name=\"").append(best.names[i]).append("\"} ")
+                 .append(best.weights[i]).append('\n');
+            }
+        }
+
+        if (Metrics.ENABLED) {
+            metric(s, "tetris_candidates_total", "counter", "Plays considered by the brain.", Metrics.CANDIDATES.sum());
+            metric(s, "tetris_evaluations_total", "counter", "Plays rated by the brain.", Metrics.EVALUATIONS.sum());
+            metric(s, "tetris_places_total", "counter", "Board.place() calls.", Metrics.PLACES.sum());
+            metric(s, "tetris_undos_total", "counter", "Board.undo() calls.", Metrics.UNDOS.sum());
+            metric(s, "tetris_rows_cleared_total", "counter", "Rows cleared, searches included.", Metrics.ROWS_CLEARED.sum());
+            Histogram h = Metrics.MOVE_NANOS;
+            header(s, "tetris_move_seconds", "summary", "Wall time of the player's decisions.");
+            quantile(s, "tetris_move_seconds", "0.5", h.getPercentile(50) / 1e9);
+            quantile(s, "tetris_move_seconds", "0.99", h.getPercentile(99) / 1e9);
+            quantile(s, "tetris_move_seconds", "0.999", h.getPercentile(99.9) / 1e9);
+            s.append("tetris_move_seconds_sum ").append(h.getMean() * h.getCount() / 1e9).append('\n');
+            s.append("tetris_move_seconds_count ").append(h.getCount()).append('\n');
+        }
+        return s.toString();
+    }
+
+
+    private static void header(StringBuilder s, String name, String type, String help) {
+        s.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        s.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+
+    private static void metric(StringBuilder s, String name, String type, String help, double value) {
+        header(s, name, type, help);
+        s.append(name).append(' ').append(value).append('\n');
+    }
+
+
+    private static void metric(StringBuilder s, String name, String type, String help, long value) {
+        header(s, name, type, help);
+        s.append(name).append(' ').append(value).append('\n');
+    }
+
+
+    private static void quantile(StringBuilder s, String name, String q, double value) {
+        s.append(name).append("{quantile=\"").append(q).append("\"} ").append(value).append('\n');
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ A worst case adversary: alpha-beta minimax over piece choices.
+
+ The greedy adversary gives the player the piece whose best play
+ rates worst. This one looks "depth" pieces ahead: the adversary
+ picks each piece to make things as bad as it can, the player
+ answers with its best play, and so on, and a board at the bottom
+ is rated by the leaf rater. bestMoves() rates every piece that
+ way, so as the game's opponent it hands out the piece with the
+ worst guaranteed outcome; bestMove() is the player's best play
+ of one piece against such an adversary.
+
+ Alpha-beta cuts off lines that cannot change the answer. It cuts
+ most when the best line is searched first, so the plays of a
+ piece are tried best rated first and the pieces worst for the
+ player first. Bounds found for a board are kept in two
+ transposition tables, one of lower and one of upper bounds, keyed
+ on Board.canonicalKey() and the depth left -- the adversary
+ chooses among all 7 pieces, so a board and its mirror are worth
+ the same to it. The tables are kept between calls, and much of
+ one spawn's search is met again on the next.
+
+ Depth 1 is the greedy adversary; depth 3 is practical per spawn.
+*/
+public class MinimaxBrain implements AdversaryBrain, RatedBrain {
+    // the score of a board where the piece cannot be played at all
+    private static final double LOST = 1e20;
+
+    private BoardRater rater;
+    private int depth;
+    private int limitHeight;
+    private Piece[] pieces;
+    private long nodes;
+
+    private TranspositionTable lower;
+    private TranspositionTable upper;
+    private int tableLimit;
+
+    // per level: a board, the plays of every piece on it, the
+    // best rating of each piece and the order to try the pieces in
+    private Board[] boards;
+    private Placements[][] plays;
+    private double[][] greedy;
+    private int[][] order;
+    private int rootBest;  // the best play found at level 0
+
+
+    /*
+     Looks 3 pieces ahead with the default
+     ErikWurmanSinaBakhtiariBrain weights.
+    */
+    public MinimaxBrain() {
+        this(new ErikWurmanSinaBakhtiariBrain(), 3);
+    }
+
+
+    public MinimaxBrain(BoardRater rater, int depth) {
+        this.rater = rater;
+        this.depth = Math.max(depth, 1);
+        pieces = Piece.getPieces();
+        lower = new TranspositionTable(18);
+        upper = new TranspositionTable(18);
+        tableLimit = -1;
+        plays = new Placements[this.depth][pieces.length];
+        greedy = new double[this.depth][pieces.length];
+        order = new int[this.depth][pieces.length];
+        for (int l = 0; l < this.depth; l++) {
+            for (int p = 0; p < pieces.length; p++) {
+                plays[l][p] = new Placements();
+            }
+        }
+    }
+
+
+    /*
+     Returns the number of piece plays generated so far.
+    */
+    public long getNodes() {
+        return nodes;
+    }
+
+
+    public BoardRater getRater() {
+        return rater;
+    }
+
+
+    public void setRater(BoardRater rater) {
+        this.rater = rater;
+        lower.clear(); // their bounds came from the old rater
+        upper.clear();
+    }
+
+
+    public Brain.Move bestMove(Board board, Piece piece, int limitHeight, Brain.Move move) {
+        prepare(board, limitHeight);
+        Placements list = plays[0][0];
+        if (list.generate(board, piece, limitHeight, rater) == 0) {
+            return(null); // could not find a play at all!
+        }
+        nodes++;
+        list.sortByScore();
+        double score = playerValue(0, list, depth, -LOST, LOST);
+        return fill(list, score, move);
+    }
+
+
+    /*
+     Rates every piece by the player's best play against the
+     adversary, each with a full window so every score is exact.
+    */
+    public void bestMoves(Board board, Piece[] pieces, int limitHeight, Brain.Move[] moves) {
+        prepare(board, limitHeight);
+        for (int i = 0; i < pieces.length; i++) {
+            Placements list = plays[0][0];
+            if (list.generate(board, pieces[i], limitHeight, rater) == 0) {
+                moves[i] = null;
+                continue;
+            }
+            nodes++;
+            list.sortByScore();
+            double score = playerValue(0, list, depth, -LOST, LOST);
+            moves[i] = fill(list, score, moves[i]);
+        }
+    }
+
+
+    private Brain.Move fill(Placements list, double score, Brain.Move move) {
+        if (move==null) move = new Brain.Move();
+        move.x = list.x(rootBest);
+        move.y = list.y(rootBest);
+        move.piece = list.piece(rootBest);
+        move.score = score;
+        return(move);
+    }
+
+
+    /*
+     The player's turn at this level: the lowest value over the
+     plays in list (already generated and sorted), with "left"
+     adversary choices still to come including the one that made
+     this list. Returns a value <= alpha or >= beta when the true
+     value is outside the window.
+    */
+    private double playerValue(int level, Placements list, int left, double alpha, double beta) {
+        final int n = list.size();
+        if (left == 1) {
+            if (level == 0) rootBest = 0;
+            return list.score(0);
+        }
+        double best = LOST;
+        // the best play so far, even if every play turns out lost
+        if (level == 0) rootBest = 0;
+        Board from = (level == 0) ? null : boards[level];
+        for (int j = 0; j < n; j++) {
+            Board child = boards[level + 1];
+            child.copyFrom(from == null ? root : from);
+            list.apply(child, j);
+            child.commit();
+            double v = adversaryValue(level + 1, left - 1, alpha, beta);
+            if (v < best) {
+                best = v;
+                if (level == 0) rootBest = j;
+            }
+            if (best < beta) beta = best;
+            if (alpha >= beta) break;
+        }
+        return best;
+    }
+
+
+    /*
+     The adversary's turn on boards[level]: the highest value over
+     the pieces of the player's best reply.
+    */
+    private double adversaryValue(int level, int left, double alpha, double beta) {
+        final Board board = boards[level];
+        final long key = board.canonicalKey();
+        double lo = lower.get(key, left);
+        double hi = upper.get(key, left);
+        if (lo == lo && lo >= beta) return lo; // not NaN
+        if (hi == hi && hi <= alpha) return hi;
+        if (lo == lo && hi == hi && lo == hi) return lo;
+        if (lo == lo && lo > alpha) alpha = lo;
+        if (hi == hi && hi < beta) beta = hi;
+        final double alpha0 = alpha;
+        final double beta0 = beta;
+
+        // rate every piece one ply deep, then try the worst first --
+        // on the last choice that rating is the value, so stop as
+        // soon as one piece is bad enough
+        final int[] ord = order[level];
+        final double[] g = greedy[level];
+        double best = -LOST;
+        for (int p = 0; p < pieces.length; p++) {
+            Placements list = plays[level][p];
+            int n = list.generate(board, pieces[p], limitHeight, rater);
+            nodes++;
+            if (n == 0) {
+                return LOST; // the adversary wins outright
+            }
+            g[p] = list.minScore();
+            if (left == 1) {
+                if (g[p] > best) best = g[p];
+                if (best >= beta) break;
+                continue;
+            }
+            list.sortByScore();
+            int k = p;
+            while (k > 0 && g[ord[k - 1]] < g[p]) {
+                ord[k] = ord[k - 1];
+                k--;
+            }
+            ord[k] = p;
+        }
+
+        for (int k = 0; left > 1 && k < pieces.length; k++) {
+            double v = playerValue(level, plays[level][ord[k]], left, alpha, beta);
+            if (v > best) best = v;
+            if (best > alpha) alpha = best;
+            if (alpha >= beta) break;
+        }
+
+        if (best > alpha0) lower.put(key, left, best);
+        if (best < beta0) upper.put(key, left, best);
+        return best;
+    }
+
+
+    private Board root;
+
+    private void prepare(Board board, int limitHeight) {
+        if (boards == null || boards[0].getWidth() != board.getWidth()
+                || boards[0].getHeight() != board.getHeight()) {
+            boards = new Board[depth + 1];
+            for (int i = 0; i < boards.length; i++) {
+                boards[i] = new Board(board.getWidth(), board.getHeight());
+            }
+            lower.clear();
+            upper.clear();
+        }
+        if (limitHeight != tableLimit) {
+            // the stored values depend on where pieces may come to rest
+            lower.clear();
+            upper.clear();
+            tableLimit = limitHeight;
+        }
+        this.limitHeight = limitHeight;
+        root = board;
+    }
+}
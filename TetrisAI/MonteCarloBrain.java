@@ -0,0 +1,435 @@
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+/*
+ A Monte Carlo rollout brain.
+
+ Each play of the current piece is scored by playing the game on
+ from the board it leaves: a few more pieces (the preview first,
+ then random ones) are dropped by a very cheap greedy policy, and
+ the board at the end is rated by the leaf rater. The score of a
+ play is the mean over many such rollouts.
+
+ Rollouts are run in rounds. After each round every play gets a
+ confidence interval (mean +- z standard errors) and plays whose
+ best case is worse than the worst case of the leader get no more
+ rollouts, so the work goes to the plays that are still close.
+
+ The rounds are split over several threads, each with its own
+ boards, statistics and random state, so a rollout allocates
+ nothing and the threads never share anything they write.
+ The threads meet at a barrier between rounds. They are started
+ for each search and joined before it returns, so a brain that
+ is not searching holds no threads. The leaf rater's
+ rateBoard() is called from all of them at once and must not keep
+ state. LameBrain's and ErikWurmanSinaBakhtiariBrain's do not --
+ but ErikWurmanSinaBakhtiariBrain.bestMove() does, so a rater is
+ only ever asked to rate here, never to pick a move.
+*/
+public class MonteCarloBrain implements AnytimeBrain {
+    // the score of a rollout where a piece could not be played --
+    // finite so it can still be averaged
+    public static final double LOST = 1e6;
+
+    private BoardRater rater;
+    private int rolloutLength;
+    private int rolloutsPerRound;
+    private int maxRounds;
+    private double z;
+    private int threads;
+
+    private Piece[] pieces;
+    private Placements root;
+    private Board[] children;   // the board after each root play
+    private boolean[] alive;    // still getting rollouts
+    private double[] mean;
+    private double[] bound;     // z standard errors
+
+    // set up by the calling thread before each round
+    private Piece[] roundPreview;
+    private int roundPreviewCount;
+    private int roundLimit;
+    private int roundRollouts;  // per worker per live play
+
+    private Worker[] workers;   // workers[0] runs on the calling thread
+    private Thread[] helpers;   // the other workers' threads, during a search
+    private volatile RuntimeException failure; // thrown by a helper's round
+    private CyclicBarrier start;
+    private CyclicBarrier done;
+
+
+    /*
+     Rolls out 5 pieces, 16 rollouts per play per round and
+     up to 12 rounds, on every core.
+    */
+    public MonteCarloBrain() {
+        this(new ErikWurmanSinaBakhtiariBrain(), 5, 16, 12,
+             Runtime.getRuntime().availableProcessors());
+    }
+
+
+    public MonteCarloBrain(BoardRater rater, int rolloutLength, int rolloutsPerRound,
+                           int maxRounds, int threads) {
+        this.rater = rater;
+        this.rolloutLength = Math.max(rolloutLength, 1);
+        this.rolloutsPerRound = Math.max(rolloutsPerRound, 1);
+        this.maxRounds = Math.max(maxRounds, 1);
+        this.threads = Math.max(threads, 1);
+        z = 2.0;
+        pieces = Piece.getPieces();
+        root = new Placements();
+        children = new Board[0];
+        alive = new boolean[0];
+        mean = new double[0];
+        bound = new double[0];
+    }
+
+
+    /*
+     Sets how many standard errors wide the confidence interval is.
+     Smaller gives up on plays sooner.
+    */
+    public void setConfidence(double z) {
+        this.z = z;
+    }
+
+
+    public Brain.Move bestMove(Board board, Piece piece, int limitHeight, Brain.Move move) {
+        return bestMove(board, piece, null, 0, limitHeight, move, null);
+    }
+
+
+    public Brain.Move bestMove(Board board, Piece piece, Piece[] preview, int previewCount,
+                               int limitHeight, Brain.Move move) {
+        return bestMove(board, piece, preview, previewCount, limitHeight, move, null);
+    }
+
+
+    public Brain.Move bestMove(Board board, Piece piece, Piece[] preview, int previewCount,
+                               int limitHeight, Brain.Move move, SearchBudget budget) {
+        final int n = root.generate(board, piece, limitHeight, rater);
+        if (n == 0) {
+            return(null); // could not find a play at all!
+        }
+        ensureCapacity(board, n);
+        for (int i = 0; i < n; i++) {
+            children[i].copyFrom(board);
+            root.apply(children[i], i);
+            children[i].commit();
+            alive[i] = true;
+            mean[i] = root.score(i);
+            bound[i] = 0;
+        }
+        for (int w = 0; w < workers.length; w++) {
+            workers[w].reset(n);
+        }
+
+        roundPreview = preview;
+        roundPreviewCount = previewCount;
+        roundLimit = limitHeight;
+        roundRollouts = (rolloutsPerRound + threads - 1) / threads;
+
+        int live = n;
+        if (live > 1) {
+            startWorkers();
+            try {
+                for (int round = 0; round < maxRounds && live > 1; round++) {
+                    if (round > 0 && budget != null && budget.exhausted()) break;
+                    runRound();
+                    if (budget != null) budget.spend((long) live * roundRollouts * threads * rolloutLength);
+                    live = prune(n);
+                }
+            }
+            finally {
+                stopWorkers();
+            }
+        }
+
+        int best = -1;
+        for (int i = 0; i < n; i++) {
+            if (alive[i] && (best < 0 || mean[i] < mean[best])) best = i;
+        }
+        roundPreview = null;
+
+        if (move==null) move = new Brain.Move();
+        move.x = root.x(best);
+        move.y = root.y(best);
+        move.piece = root.piece(best);
+        move.score = mean[best];
+        return(move);
+    }
+
+
+    /*
+     Starts a thread for every worker but the first, to wait at
+     the start barrier for the rounds of this search.
+    */
+    private void startWorkers() {
+        if (workers.length == 1) return;
+        start = new CyclicBarrier(workers.length);
+        done = new CyclicBarrier(workers.length);
+        helpers = new Thread[workers.length - 1];
+        failure = null;
+        for (int w = 1; w < workers.length; w++) {
+            workers[w].stopping = false;
+            helpers[w - 1] = new Thread(workers[w], "MonteCarloBrain-" + w);
+            helpers[w - 1].setDaemon(true);
+            helpers[w - 1].start();
+        }
+    }
+
+
+    /*
+     Lets the threads startWorkers() started go, and waits for
+     them to end.
+    */
+    private void stopWorkers() {
+        if (helpers == null) return;
+        for (int w = 1; w < workers.length; w++) {
+            workers[w].stopping = true;
+        }
+        try {
+            start.await();
+            for (int w = 0; w < helpers.length; w++) {
+                helpers[w].join();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // the barrier is broken, so they end anyway
+        }
+        catch (BrokenBarrierException e) {
+            // a round failed and the threads are ending already
+        }
+        helpers = null;
+    }
+
+
+    /*
+     Runs one round of rollouts on every worker and waits for all
+     of them to finish.
+    */
+    private void runRound() {
+        if (workers.length == 1) {
+            workers[0].work();
+            return;
+        }
+        try {
+            start.await();
+            try {
+                workers[0].work();
+            }
+            finally {
+                done.await(); // so the others are back at start for stopWorkers()
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted during rollouts");
+        }
+        catch (BrokenBarrierException e) {
+            throw new RuntimeException("Rollout worker failed");
+        }
+        if (failure != null) {
+            throw new RuntimeException("Rollout worker failed", failure);
+        }
+    }
+
+
+    /*
+     Adds up the workers' statistics, then stops giving rollouts
+     to every play that is clearly worse than the leader.
+     Returns the number of plays still alive.
+    */
+    private int prune(int n) {
+        double leaderWorst = Double.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            if (!alive[i]) continue;
+            long count = 0;
+            double sum = 0;
+            double sumSq = 0;
+            for (int w = 0; w < workers.length; w++) {
+                count += workers[w].count[i];
+                sum += workers[w].sum[i];
+                sumSq += workers[w].sumSq[i];
+            }
+            mean[i] = sum / count;
+            double var = Math.max(sumSq / count - mean[i] * mean[i], 0);
+            bound[i] = z * Math.sqrt(var / count);
+            leaderWorst = Math.min(leaderWorst, mean[i] + bound[i]);
+        }
+        int live = 0;
+        for (int i = 0; i < n; i++) {
+            if (alive[i] && mean[i] - bound[i] > leaderWorst) alive[i] = false;
+            if (alive[i]) live++;
+        }
+        return live;
+    }
+
+
+    private void ensureCapacity(Board board, int n) {
+        if (workers == null || children.length == 0
+                || children[0].getWidth() != board.getWidth()
+                || children[0].getHeight() != board.getHeight()) {
+            children = new Board[0];
+            workers = new Worker[threads];
+            for (int w = 0; w < threads; w++) {
+                workers[w] = new Worker(board.getWidth(), board.getHeight(), 0x5DEECE66DL * (w + 1));
+            }
+        }
+        if (children.length < n) {
+            Board[] c = new Board[n];
+            System.arraycopy(children, 0, c, 0, children.length);
+            for (int i = children.length; i < n; i++) {
+                c[i] = new Board(board.getWidth(), board.getHeight());
+            }
+            children = c;
+            alive = new boolean[n];
+            mean = new double[n];
+            bound = new double[n];
+        }
+    }
+
+
+    /*
+     A stripped down LameBrain.rateBoard() for the rollout policy:
+     height and holes only, read off the column bits.
+    */
+    static double greedyScore(Board board) {
+        final int width = board.getWidth();
+        int sumHeight = 0;
+        int holes = 0;
+        for (int x=0; x<width; x++) {
+            final int colHeight = board.getColumnHeight(x);
+            sumHeight += colHeight;
+            holes += colHeight - Long.bitCount(board.getColumnBits(x));
+        }
+        return (8*board.getMaxHeight() + 40.0*sumHeight/width + 1.25*holes);
+    }
+
+
+    /*
+     One thread's share of the rollouts, with everything it writes.
+    */
+    private final class Worker implements Runnable {
+        Board board;
+        long seed;
+        long[] count = new long[0];
+        double[] sum = new double[0];
+        double[] sumSq = new double[0];
+        volatile boolean stopping;
+
+        Worker(int width, int height, long seed) {
+            board = new Board(width, height);
+            this.seed = seed;
+        }
+
+        void reset(int n) {
+            if (count.length < n) {
+                count = new long[n];
+                sum = new double[n];
+                sumSq = new double[n];
+            }
+            for (int i = 0; i < n; i++) {
+                count[i] = 0;
+                sum[i] = 0;
+                sumSq[i] = 0;
+            }
+        }
+
+        public void run() {
+            try {
+                while (true) {
+                    start.await();
+                    if (stopping) return;
+                    try {
+                        work();
+                    }
+                    catch (RuntimeException e) {
+                        failure = e;
+                    }
+                    done.await();
+                }
+            }
+            catch (InterruptedException e) {
+                // exit the thread
+            }
+            catch (BrokenBarrierException e) {
+                // exit the thread
+            }
+        }
+
+        void work() {
+            final int n = root.size();
+            for (int i = 0; i < n; i++) {
+                if (!alive[i]) continue;
+                for (int r = 0; r < roundRollouts; r++) {
+                    double score = rollout(children[i]);
+                    count[i]++;
+                    sum[i] += score;
+                    sumSq[i] += score * score;
+                }
+            }
+        }
+
+        /*
+         Plays rolloutLength pieces on from the start board with the
+         greedy policy and rates where it ends up.
+        */
+        double rollout(Board start) {
+            board.copyFrom(start);
+            for (int step = 0; step < rolloutLength; step++) {
+                Piece piece;
+                if (step < roundPreviewCount) {
+                    piece = roundPreview[step];
+                }
+                else {
+                    seed ^= seed << 13;
+                    seed ^= seed >>> 7;
+                    seed ^= seed << 17;
+                    piece = pieces[(int) ((seed >>> 1) % pieces.length)];
+                }
+                if (!playGreedy(piece)) return LOST;
+            }
+            return rater.rateBoard(board);
+        }
+
+        /*
+         Plays the piece where greedyScore() likes it best.
+         Returns false if it cannot be played at all.
+        */
+        boolean playGreedy(Piece piece) {
+            double bestScore = 1e20;
+            int bestX = 0;
+            int bestY = 0;
+            Piece bestPiece = null;
+            Piece current = piece;
+            while (true) {
+                final int yBound = roundLimit - current.getHeight()+1;
+                final int xBound = board.getWidth() - current.getWidth()+1;
+                for (int x = 0; x<xBound; x++) {
+                    int y = board.dropHeight(current, x);
+                    if (y<yBound) {
+                        int result = board.place(current, x, y);
+                        if (result <= Board.PLACE_ROW_FILLED) {
+                            if (result == Board.PLACE_ROW_FILLED) board.clearRows();
+                            double score = greedyScore(board);
+                            if (score<bestScore) {
+                                bestScore = score;
+                                bestX = x;
+                                bestY = y;
+                                bestPiece = current;
+                            }
+                        }
+                        board.undo();
+                    }
+                }
+                current = current.nextRotation();
+                if (current == piece) break;
+            }
+            if (bestPiece == null) return false;
+            if (board.place(bestPiece, bestX, bestY) == Board.PLACE_ROW_FILLED) board.clearRows();
+            board.commit();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ A move packed into one long, for move lists that should not cost
+ a Brain.Move object per entry.
+
+   bits  0-7   y
+   bits  8-15  x
+   bits 16-17  rotation (Piece.getRotation())
+   bits 18-20  piece id (Piece.getId())
+   bits 32-63  the score, as a float, in an order preserving form
+
+ The score is in the high bits, so sorting packed moves as plain
+ longs sorts them by score, lowest (best) first. Scores are kept
+ to float precision -- plenty to rank plays, but use the rater
+ again if the exact double is needed.
+*/
+public final class PackedMove {
+    private PackedMove() {
+    }
+
+
+    public static long pack(Piece piece, int x, int y, double score) {
+        return pack(piece.getId(), piece.getRotation(), x, y, score);
+    }
+
+
+    public static long pack(int id, int rotation, int x, int y, double score) {
+        int bits = Float.floatToIntBits((float) score);
+        // flip the magnitude bits of negatives so ints order like floats
+        bits ^= (bits >> 31) & 0x7FFFFFFF;
+        return ((long) bits << 32) | (id << 18) | (rotation << 16) | (x << 8) | y;
+    }
+
+
+    public static int id(long move) {
+        return (int) (move >>> 18) & 7;
+    }
+
+    public static int rotation(long move) {
+        return (int) (move >>> 16) & 3;
+    }
+
+    public static int x(long move) {
+        return (int) (move >>> 8) & 0xFF;
+    }
+
+    public static int y(long move) {
+        return (int) move & 0xFF;
+    }
+
+    public static Piece piece(long move) {
+        return Piece.getPiece(id(move), rotation(move));
+    }
+
+    public static double score(long move) {
+        int bits = (int) (move >> 32);
+        bits ^= (bits >> 31) & 0x7FFFFFFF;
+        return Float.intBitsToFloat(bits);
+    }
+
+
+    /*
+     Copies a packed move into a Brain.Move and returns it,
+     allocating one if move is null.
+    */
+    public static Brain.Move unpack(long packed, Brain.Move move) {
+        if (move==null) move = new Brain.Move();
+        move.piece = piece(packed);
+        move.x = x(packed);
+        move.y = y(packed);
+        move.score = score(packed);
+        return(move);
+    }
+
+
+    /*
+     Adds a packed move to out[0..count), kept sorted best first
+     and at most k long, and returns the new count. A move no better
+     than the k'th is dropped.
+    */
+    public static int insert(long[] out, int count, int k, long move) {
+        if (count == k) {
+            if (move >= out[k - 1]) return count;
+            count--;
+        }
+        int i = count;
+        while (i > 0 && out[i - 1] > move) {
+            out[i] = out[i - 1];
+            i--;
+        }
+        out[i] = move;
+        return count + 1;
+    }
+}
@@ -25,9 +25,13 @@ public final class Piece {
     */
     private Point[] body;
     private int[] skirt;
+    private int[] top;	// highest y + 1 in each column
+    private int[] rowWidths;	// blocks in each row
     private int width;
     private int height;
     private Piece next;	// "next" rotation
+    private int id;	// which of the 7 pieces, 0..6
+    private int rotation;	// nextRotation() steps from the first rotation
 	
     static private Piece[] pieces;	// singleton array of first rotations
 	
@@ -60,6 +64,14 @@ public final class Piece {
 		if (body[j].x == i && body[j].y < skirt[i])
 		    skirt[i] = body[j].y;
 	}
+	// and the top and row widths
+	top = new int[width];
+	rowWidths = new int[height];
+	for (int j = 0; j < body.length; j++) {
+	    if (body[j].y + 1 > top[body[j].x])
+		top[body[j].x] = body[j].y + 1;
+	    rowWidths[body[j].y]++;
+	}
     }	
 
     /**
@@ -94,6 +106,41 @@ public final class Piece {
 	return(skirt);
     }
 
+    /**
+       Returns a pointer to the piece's top. For each x value
+       across the piece, the top gives the highest y value in the
+       body plus one -- the column height the piece adds there.
+       The caller should not modify this array.
+    */
+    public int[] getTop() {
+	return(top);
+    }
+
+    /**
+       Returns a pointer to the number of blocks in each row of
+       the piece, from y = 0 up. The caller should not modify
+       this array.
+    */
+    public int[] getRowWidths() {
+	return(rowWidths);
+    }
+
+
+    /**
+       Returns which of the 7 standard pieces this is -- its index
+       in the {@link #getPieces()} array -- whatever the rotation.
+    */
+    public int getId() {
+	return(id);
+    }
+
+    /**
+       Returns how many {@link #nextRotation()} steps this rotation
+       is from the first rotation of its piece, 0..3.
+    */
+    public int getRotation() {
+	return(rotation);
+    }
 
     /**
        Returns a piece that is 90 degrees counter-clockwise
@@ -171,7 +218,7 @@ public final class Piece {
        In this way, the client can iterate through all the rotations
        until eventually getting back to the first rotation.
     */
-    public static Piece[] getPieces() {
+    public static synchronized Piece[] getPieces() {
 	/*
 	  Hint
 	 
@@ -187,6 +234,7 @@ public final class Piece {
 	 
 	  };
 	*/
+	if (pieces != null) return pieces;
 	pieces = new Piece[] {
 	    pieceRow(new Piece(parsePoints("0 0	0 1	0 2	0 3"))),	// 0
 	    pieceRow(new Piece(parsePoints("0 0	0 1	0 2	1 0"))),	// 1
@@ -196,10 +244,32 @@ public final class Piece {
 	    pieceRow(new Piece(parsePoints("0 0	0 1	1 0	1 1"))),	// 5
 	    pieceRow(new Piece(parsePoints("0 0	1 0	1 1	2 0"))),	// 6
 	};
+	// number the pieces and their rotations
+	for (int i = 0; i < pieces.length; i++) {
+	    Piece finger = pieces[i];
+	    int r = 0;
+	    do {
+		finger.id = i;
+		finger.rotation = r++;
+		finger = finger.next;
+	    } while (finger != pieces[i]);
+	}
         return pieces;
     }
 
 
+    /**
+       Returns the given rotation of the piece with the given id --
+       the inverse of {@link #getId()} and {@link #getRotation()}.
+    */
+    public static Piece getPiece(int id, int rotation) {
+	Piece p = getPieces()[id];
+	for (int i = 0; i < rotation; i++)
+	    p = p.next;
+	return(p);
+    }
+
+
     /**
        Given a string of x,y pairs ("0 0	0 1	0 2	1 0"), parses
        the points into a Point[] array.
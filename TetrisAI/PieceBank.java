@@ -0,0 +1,177 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+/*
+ A file of piece sequences made once and then shared by every game
+ that should be dealt the same pieces -- all the threads of a
+ HillClimbing run, several runs at once, or two optimizers to be
+ compared on equal terms.
+
+   java PieceBank pieces.bank 1000 100000      1000 sequences of 100000 pieces
+   java PieceBank pieces.bank 1000 100000 42   ... from seed 42 on
+
+ Sequence i holds exactly the pieces JBrainNoGraphics deals a game
+ seeded with seed + i (without an adversary), so a bank made from
+ seed 0 gives the same games as setSeed(i) -- only without drawing
+ any random numbers while they play.
+
+ The file is "TPB" and a version byte, then the number of
+ sequences, their length and the first seed (int, int, long),
+ then one byte per piece, Piece.getId(), sequence after sequence.
+
+ open() maps the file read only, so the pieces are read straight
+ out of the page cache -- nothing is copied onto the heap, and
+ processes mapping the same file share the same pages. Read it
+ through a PieceSource.
+*/
+public final class PieceBank {
+    static final int MAGIC = ('T' << 24) | ('P' << 16) | ('B' << 8) | 1;
+    static final int HEADER = 20; // bytes before the first piece
+
+    private final ByteBuffer pieces;
+    private final int sequences;
+    private final int length;
+    private final long seed;
+
+
+    private PieceBank(ByteBuffer buffer) throws IOException {
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a piece bank");
+        }
+        sequences = buffer.getInt(4);
+        length = buffer.getInt(8);
+        seed = buffer.getLong(12);
+        if (buffer.capacity() < HEADER + (long) sequences * length) {
+            throw new IOException("Piece bank is cut short");
+        }
+        pieces = buffer;
+    }
+
+
+    /*
+     Maps a bank file made by write().
+    */
+    public static PieceBank open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Piece bank over 2GB: "+file);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new PieceBank(buffer);
+        }
+        finally {
+            raf.close(); // the mapping stays valid
+        }
+    }
+
+
+    /*
+     If -Dtetris.pieces names a bank file, opens it, else returns
+     null.
+    */
+    public static PieceBank openIfConfigured() {
+        String file = System.getProperty("tetris.pieces");
+        if (file == null) return null;
+        try {
+            return open(new File(file));
+        }
+        catch (IOException e) {
+            System.err.println("Could not open piece bank "+file+": "+e);
+            return null;
+        }
+    }
+
+
+    /*
+     Writes a bank of the given number of sequences of length
+     pieces each, sequence i dealt from seed + i.
+    */
+    public static void write(File file, int sequences, int length, long seed) throws IOException {
+        if (HEADER + (long) sequences * length > Integer.MAX_VALUE) {
+            throw new IOException("Piece bank over 2GB: "+sequences+" x "+length);
+        }
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(sequences);
+            out.writeInt(length);
+            out.writeLong(seed);
+            Random random = new Random();
+            final int kinds = Piece.getPieces().length;
+            for (int i = 0; i < sequences; i++) {
+                random.setSeed(seed + i);
+                for (int j = 0; j < length; j++) {
+                    out.writeByte(deal(random, kinds));
+                }
+            }
+        }
+        finally {
+            out.close();
+        }
+    }
+
+
+    /*
+     Draws the next piece id the way JBrainNoGraphics.pickNextPiece()
+     does outside test mode: a draw for the adversary, then one for
+     the piece.
+    */
+    static int deal(Random random, int kinds) {
+        random.nextInt();
+        return (int) (kinds * random.nextDouble());
+    }
+
+
+    public int getSequences() {
+        return sequences;
+    }
+
+    /*
+     The number of pieces in each sequence.
+    */
+    public int getLength() {
+        return length;
+    }
+
+    /*
+     The seed of sequence 0.
+    */
+    public long getSeed() {
+        return seed;
+    }
+
+
+    /*
+     Returns a read only view of the mapped file, for a PieceSource.
+     Views share the mapping; each has its own position.
+    */
+    ByteBuffer view() {
+        return pieces.duplicate();
+    }
+
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("usage: java PieceBank file sequences length [seed]");
+            return;
+        }
+        File file = new File(args[0]);
+        int sequences = Integer.parseInt(args[1]);
+        int length = Integer.parseInt(args[2]);
+        long seed = (args.length > 3) ? Long.parseLong(args[3]) : 0;
+        long start = System.nanoTime();
+        write(file, sequences, length, seed);
+        System.out.println("Wrote "+sequences+" sequences of "+length+" pieces, seeds "+seed+" on, to "
+                           +file+" ("+file.length()+" bytes) in "+(System.nanoTime() - start) / 1000000+"ms");
+    }
+}
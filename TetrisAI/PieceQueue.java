@@ -0,0 +1,100 @@
+/*
+ A fixed size first-in first-out queue of pieces, used by the
+ games to hold the upcoming pieces that have already been picked.
+ Backed by a ring buffer so adding and taking never allocates.
+*/
+public final class PieceQueue {
+    private Piece[] ring;
+    private int head;
+    private int size;
+
+
+    /*
+     Creates an empty queue that holds at most capacity pieces.
+    */
+    public PieceQueue(int capacity) {
+        ring = new Piece[Math.max(capacity, 1)];
+        head = 0;
+        size = 0;
+    }
+
+
+    /*
+     Returns the number of pieces waiting in the queue.
+    */
+    public int size() {
+        return size;
+    }
+
+
+    /*
+     Returns the most pieces the queue can hold.
+    */
+    public int capacity() {
+        return ring.length;
+    }
+
+
+    /*
+     Empties the queue.
+    */
+    public void clear() {
+        for (int i = 0; i < ring.length; i++) {
+            ring[i] = null;
+        }
+        head = 0;
+        size = 0;
+    }
+
+
+    /*
+     Adds a piece at the back of the queue.
+    */
+    public void add(Piece piece) {
+        if (size == ring.length) {
+            throw new RuntimeException("PieceQueue full "+size);
+        }
+        ring[(head + size) % ring.length] = piece;
+        size++;
+    }
+
+
+    /*
+     Removes and returns the piece at the front of the queue.
+    */
+    public Piece take() {
+        if (size == 0) {
+            throw new RuntimeException("PieceQueue empty");
+        }
+        Piece piece = ring[head];
+        ring[head] = null;
+        head = (head + 1) % ring.length;
+        size--;
+        return piece;
+    }
+
+
+    /*
+     Returns the i'th waiting piece without removing it,
+     0 being the front of the queue.
+    */
+    public Piece peek(int i) {
+        if (i < 0 || i >= size) {
+            throw new RuntimeException("Bad queue index "+i+" "+size);
+        }
+        return ring[(head + i) % ring.length];
+    }
+
+
+    /*
+     Copies the waiting pieces, front first, into dest and
+     returns how many were copied (at most dest.length).
+    */
+    public int copyInto(Piece[] dest) {
+        int n = Math.min(size, dest.length);
+        for (int i = 0; i < n; i++) {
+            dest[i] = ring[(head + i) % ring.length];
+        }
+        return n;
+    }
+}
@@ -0,0 +1,86 @@
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/*
+ Deals the pieces of one sequence of a PieceBank, in order, read
+ straight from the mapped file -- one byte read per piece and no
+ random numbers drawn.
+
+ A game that outlasts the sequence goes on with the pieces the
+ sequence's seed would have dealt next, so it plays exactly as the
+ seeded game would; only that tail costs random numbers again.
+ One source can be restarted on sequence after sequence without
+ allocating; each game thread needs a source of its own.
+*/
+public final class PieceSource {
+    private final PieceBank bank;
+    private final ByteBuffer pieces;
+    private final int kinds = Piece.getPieces().length;
+    private int sequence;
+    private int start; // where the sequence begins in the file
+    private int dealt; // pieces dealt from it so far
+    private Random overflow; // past the end of the sequence, else unused
+
+
+    public PieceSource(PieceBank bank) {
+        this.bank = bank;
+        pieces = bank.view();
+        start(0);
+    }
+
+
+    /*
+     Starts dealing the given sequence from its first piece.
+    */
+    public void start(int sequence) {
+        if (sequence < 0 || sequence >= bank.getSequences()) {
+            throw new IllegalArgumentException("No sequence "+sequence+" in a bank of "+bank.getSequences());
+        }
+        this.sequence = sequence;
+        start = PieceBank.HEADER + sequence * bank.getLength();
+        dealt = 0;
+    }
+
+
+    /*
+     Returns the id of the next piece (see Piece.getId()).
+    */
+    public int next() {
+        if (dealt < bank.getLength()) {
+            return pieces.get(start + dealt++);
+        }
+        if (dealt == bank.getLength()) {
+            // catch the seed's generator up with the bank
+            if (overflow == null) overflow = new Random();
+            overflow.setSeed(getSeed());
+            for (int i = 0; i < bank.getLength(); i++) {
+                PieceBank.deal(overflow, kinds);
+            }
+        }
+        dealt++;
+        return PieceBank.deal(overflow, kinds);
+    }
+
+
+    public PieceBank getBank() {
+        return bank;
+    }
+
+    public int getSequence() {
+        return sequence;
+    }
+
+    /*
+     The seed the sequence was dealt from.
+    */
+    public long getSeed() {
+        return bank.getSeed() + sequence;
+    }
+
+    /*
+     The number of pieces dealt since start().
+    */
+    public int getDealt() {
+        return dealt;
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ A reusable list of all the ways to play one piece on a board,
+ together with the rating of the board each play leaves behind.
+
+ generate() walks the rotations and columns the same way
+ LameBrain.bestMove() does -- place(), clearRows(), rate, undo() --
+ but remembers every legal play instead of only the best one.
+ Search brains use it to order and expand candidate plays.
+
+ Plays that leave the same board are only listed once (the first
+ one found), so a search never expands the same board twice from
+ one parent. Every play also keeps the hashKey() of its board, for
+ searches that also want to merge boards reached from different
+ parents. Rotations are distinct shapes, so only plays that clear
+ rows can ever coincide, and only those are checked.
+ The arrays are kept between calls, so once they have grown to
+ fit the widest board no more memory is allocated.
+*/
+public final class Placements {
+    private Piece[] pieces;
+    private int[] xs;
+    private int[] ys;
+    private double[] scores;
+    private long[] hashes;
+    private int count;
+    private int[] clears;    // the plays so far that cleared rows
+    private int clearCount;
+    private int duplicates;
+
+
+    public Placements() {
+        pieces = new Piece[48];
+        xs = new int[48];
+        ys = new int[48];
+        scores = new double[48];
+        hashes = new long[48];
+        clears = new int[48];
+        count = 0;
+    }
+
+
+    /*
+     Fills the list with every legal play of the given piece (in all
+     its rotations) that comes to rest below limitHeight, each scored
+     by the rater. The board must be committed and is left committed.
+     Returns the number of distinct plays found.
+    */
+    public int generate(Board board, Piece piece, int limitHeight, BoardRater rater) {
+        count = 0;
+        clearCount = 0;
+        Piece current = piece;
+        int considered = 0; // legal plays, duplicates too, for Metrics
+
+        // loop through all the rotations
+        while (true) {
+            final int yBound = limitHeight - current.getHeight()+1;
+            final int xBound = board.getWidth() - current.getWidth()+1;
+
+            // For current rotation, try all the possible columns
+            for (int x = 0; x<xBound; x++) {
+                int y = board.dropHeight(current, x);
+                if (y<yBound) { // piece does not stick up too far
+                    considered++;
+                    int result = board.place(current, x, y);
+                    if (result == Board.PLACE_OK) {
+                        add(current, x, y, board.hashKey(), rater.rateBoard(board));
+                    }
+                    else if (result == Board.PLACE_ROW_FILLED) {
+                        board.clearRows();
+                        final long hash = board.hashKey();
+                        if (isDuplicate(hash)) {
+                            duplicates++;
+                        }
+                        else {
+                            if (clearCount == clears.length) {
+                                int[] c2 = new int[clearCount * 2];
+                                System.arraycopy(clears, 0, c2, 0, clearCount);
+                                clears = c2;
+                            }
+                            clears[clearCount++] = count;
+                            add(current, x, y, hash, rater.rateBoard(board));
+                        }
+                    }
+                    board.undo(); // back out that play, loop around for the next
+                }
+            }
+
+            current = current.nextRotation();
+            if (current == piece) break; // break if back to original rotation
+        }
+        if (Metrics.ENABLED) Metrics.CANDIDATES.add(considered);
+        return count;
+    }
+
+
+    /*
+     Sorts the plays so the best (lowest) score comes first.
+     Insertion sort -- there are only ever a few dozen plays,
+     and it keeps equal scores in generation order.
+    */
+    public void sortByScore() {
+        for (int i = 1; i < count; i++) {
+            Piece p = pieces[i];
+            int x = xs[i];
+            int y = ys[i];
+            double s = scores[i];
+            long hash = hashes[i];
+            int j = i - 1;
+            while (j >= 0 && scores[j] > s) {
+                pieces[j+1] = pieces[j];
+                xs[j+1] = xs[j];
+                ys[j+1] = ys[j];
+                scores[j+1] = scores[j];
+                hashes[j+1] = hashes[j];
+                j--;
+            }
+            pieces[j+1] = p;
+            xs[j+1] = x;
+            ys[j+1] = y;
+            scores[j+1] = s;
+            hashes[j+1] = hash;
+        }
+    }
+
+
+    /*
+     Plays the i'th play on the board, clearing any filled rows.
+     Returns the result of Board.place(). The caller should
+     undo() or commit() the board afterwards.
+    */
+    public int apply(Board board, int i) {
+        int result = board.place(pieces[i], xs[i], ys[i]);
+        if (result == Board.PLACE_ROW_FILLED) board.clearRows();
+        return result;
+    }
+
+
+    public int size() {
+        return count;
+    }
+
+    public Piece piece(int i) {
+        return pieces[i];
+    }
+
+    public int x(int i) {
+        return xs[i];
+    }
+
+    public int y(int i) {
+        return ys[i];
+    }
+
+    public double score(int i) {
+        return scores[i];
+    }
+
+    /*
+     Puts the k best plays into out as PackedMove longs, best
+     first, and returns how many there were (at most k).
+    */
+    public int topMoves(long[] out, int k) {
+        if (k <= 0) return 0;
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            n = PackedMove.insert(out, n, k, PackedMove.pack(pieces[i], xs[i], ys[i], scores[i]));
+        }
+        return n;
+    }
+
+
+    /*
+     The best (lowest) score of any play, without sorting.
+     1e20 if there are none.
+    */
+    public double minScore() {
+        double best = 1e20;
+        for (int i = 0; i < count; i++) {
+            if (scores[i] < best) best = scores[i];
+        }
+        return best;
+    }
+
+    /*
+     The hashKey() of the board the i'th play leaves.
+    */
+    public long hash(int i) {
+        return hashes[i];
+    }
+
+
+    /*
+     Returns the number of plays dropped so far, over all calls,
+     because an earlier play left the same board.
+    */
+    public int getDuplicates() {
+        return duplicates;
+    }
+
+
+    /*
+     True if an earlier row clearing play left a board with this hash.
+    */
+    private boolean isDuplicate(long hash) {
+        for (int k = 0; k < clearCount; k++) {
+            if (hashes[clears[k]] == hash) return true;
+        }
+        return false;
+    }
+
+
+    private void add(Piece piece, int x, int y, long hash, double score) {
+        if (count == xs.length) {
+            int n = count * 2;
+            Piece[] p2 = new Piece[n];
+            int[] x2 = new int[n];
+            int[] y2 = new int[n];
+            double[] s2 = new double[n];
+            long[] h2 = new long[n];
+            System.arraycopy(pieces, 0, p2, 0, count);
+            System.arraycopy(xs, 0, x2, 0, count);
+            System.arraycopy(ys, 0, y2, 0, count);
+            System.arraycopy(scores, 0, s2, 0, count);
+            System.arraycopy(hashes, 0, h2, 0, count);
+            pieces = p2;
+            xs = x2;
+            ys = y2;
+            scores = s2;
+            hashes = h2;
+        }
+        pieces[count] = piece;
+        xs[count] = x;
+        ys[count] = y;
+        scores[count] = score;
+        hashes[count] = hash;
+        count++;
+    }
+}
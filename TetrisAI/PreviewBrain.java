@@ -0,0 +1,13 @@
+// PreviewBrain.java -- a Brain that can also look at the upcoming pieces
+
+public interface PreviewBrain extends Brain {
+ /*
+  Same as Brain.bestMove(), but is also given the pieces that will
+  follow "piece", in the order they will be played. preview[0] is the
+  piece right after the current one. Only the first previewCount
+  entries of the array are valid, and previewCount may be 0 when the
+  game is not showing any upcoming pieces.
+ */
+ public Brain.Move bestMove(Board board, Piece piece, Piece[] preview, int previewCount,
+                            int limitHeight, Brain.Move move);
+}
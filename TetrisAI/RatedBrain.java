@@ -0,0 +1,16 @@
+// RatedBrain.java -- a brain that scores its plays with a BoardRater it was given
+
+public interface RatedBrain extends Brain {
+ /*
+  The rater the brain scores boards with.
+ */
+ public BoardRater getRater();
+
+ /*
+  Makes the brain score boards with the given rater from the next
+  bestMove() on -- e.g. the same rater behind an EvaluationCache.
+  The brain only rates boards on the calling thread, so a rater
+  that is not thread safe will do.
+ */
+ public void setRater(BoardRater rater);
+}
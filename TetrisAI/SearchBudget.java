@@ -0,0 +1,82 @@
+/*
+ How much a search is allowed to think: a wall clock deadline,
+ a number of nodes (plays rated), or both.
+
+ The game resets one SearchBudget before each decision and hands
+ it to an AnytimeBrain, which spends nodes as it goes and stops
+ at the first check after the budget runs out. Once exhausted a
+ budget stays exhausted until it is reset. Reusable, so asking
+ for a move on every piece allocates nothing.
+*/
+public final class SearchBudget {
+    private boolean timed;
+    private long deadline;   // System.nanoTime() when time is up
+    private long nodeLimit;  // 0 for no limit
+    private long nodes;
+    private boolean exhausted;
+
+
+    /*
+     Creates an unlimited budget.
+    */
+    public SearchBudget() {
+        reset(0, 0);
+    }
+
+
+    /*
+     Starts a new budget of millis milliseconds from now and
+     maxNodes nodes. Either may be 0 (or less) for no limit.
+     Returns this budget for convenience.
+    */
+    public SearchBudget reset(long millis, long maxNodes) {
+        return resetNanos(millis * 1000000L, maxNodes);
+    }
+
+
+    /*
+     Same as reset(), with the time given in nanoseconds.
+    */
+    public SearchBudget resetNanos(long nanos, long maxNodes) {
+        timed = nanos > 0;
+        deadline = System.nanoTime() + nanos;
+        nodeLimit = Math.max(maxNodes, 0);
+        nodes = 0;
+        exhausted = false;
+        return this;
+    }
+
+
+    /*
+     Records that n more nodes were searched and returns
+     true if the budget is now used up.
+    */
+    public boolean spend(long n) {
+        nodes += n;
+        return exhausted();
+    }
+
+
+    /*
+     Returns true once the time or the nodes have run out.
+    */
+    public boolean exhausted() {
+        if (!exhausted) {
+            if (nodeLimit > 0 && nodes >= nodeLimit) {
+                exhausted = true;
+            }
+            else if (timed && System.nanoTime() - deadline >= 0) {
+                exhausted = true;
+            }
+        }
+        return exhausted;
+    }
+
+
+    /*
+     Returns the number of nodes spent since the last reset.
+    */
+    public long getNodes() {
+        return nodes;
+    }
+}
@@ -0,0 +1,117 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/*
+ Java Flight Recorder events for the game and the optimizer, so
+ one recording shows games, decisions and HillClimbing steps on
+ the same time line as the GC pauses and hot methods:
+
+   java -XX:StartFlightRecording=filename=run.jfr HillClimbing
+
+ JFR only keeps events while recording, and the game asks the
+ event types here whether they are enabled before making any
+ event, so without a recording the cost is a flag test. Move
+ events are also only made for one decision in every
+ JBrainNoGraphics.setMoveSampling() (64 by default).
+*/
+public final class TetrisEvents {
+
+    @Name("tetris.Game")
+    @Label("Game")
+    @Category("Tetris")
+    @Description("One headless game, from the first piece to the last")
+    public static final class Game extends Event {
+        @Label("Seed")
+        public long seed;
+
+        @Label("Pieces")
+        public int pieces;
+
+        @Label("Lines")
+        public int lines;
+    }
+
+
+    @Name("tetris.Move")
+    @Label("Move")
+    @Category("Tetris")
+    @Description("A sampled decision of the player's brain")
+    public static final class Move extends Event {
+        @Label("Brain")
+        public String brain;
+
+        @Label("Piece")
+        public int piece;
+
+        @Label("Candidates")
+        @Description("Ways the piece could be dropped")
+        public int candidates;
+
+        @Label("Max Height")
+        public int maxHeight;
+    }
+
+
+    @Name("tetris.HillClimbingIteration")
+    @Label("Hill Climbing Iteration")
+    @Category("Tetris")
+    @Description("One step of HillClimbing: weights tried, their score and whether they were kept")
+    public static final class Iteration extends Event {
+        @Label("Iteration")
+        public int iteration;
+
+        @Label("Max Height Weight")
+        public double maxHeight;
+
+        @Label("Touching Wall Weight")
+        public double touchingWall;
+
+        @Label("Holes Weight")
+        public double holes;
+
+        @Label("Roughness Weight")
+        public double roughness;
+
+        @Label("Aggregate Height Weight")
+        public double aggregateHeight;
+
+        @Label("Score")
+        @Description("Average pieces per game with these weights")
+        public double score;
+
+        @Label("Accepted")
+        public boolean accepted;
+    }
+
+
+    public static final EventType GAME = EventType.getEventType(Game.class);
+    public static final EventType MOVE = EventType.getEventType(Move.class);
+    public static final EventType ITERATION = EventType.getEventType(Iteration.class);
+
+
+    private TetrisEvents() {
+    }
+
+
+    /*
+     Returns the number of ways the piece can be dropped on the
+     board, every rotation and column, without any ending above
+     limitHeight.
+    */
+    public static int candidates(Board board, Piece piece, int limitHeight) {
+        int n = 0;
+        Piece current = piece;
+        do {
+            final int yBound = limitHeight - current.getHeight() + 1;
+            for (int x = 0; x + current.getWidth() <= board.getWidth(); x++) {
+                if (board.dropHeight(current, x) < yBound) n++;
+            }
+            current = current.nextRotation();
+        } while (current != piece);
+        return n;
+    }
+}
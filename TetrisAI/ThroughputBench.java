@@ -0,0 +1,164 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ End to end throughput: how many headless games (and pieces) per
+ second the machine plays, and how that scales with threads.
+
+ A fixed set of seeded games -- seeds seed .. seed+games-1 -- is
+ played through JBrainNoGraphics with ErikWurmanSinaBakhtiariBrain,
+ the same loop JTetrisTrain.main() and HillClimbing use. Each
+ thread has its own game and brain and takes the next seed off a
+ shared counter until none are left, so every run plays exactly
+ the same games whatever the thread count. Games are cut off at
+ maxPieces so one lucky seed cannot take over the run.
+
+ The set is played once untimed to warm up, then once at each
+ thread count 1, 2, 4, ... up to maxThreads (and maxThreads itself).
+ Each run prints one tab separated row: threads, games, pieces,
+ seconds, pieces/s, games/s, MB allocated per second over all
+ threads, and the time and number of garbage collections. Usage:
+
+   java ThroughputBench [games] [maxThreads] [seed] [maxPieces]
+
+ It plays whole games on many threads, so it stays a plain main;
+ the micro benchmarks are JMH ones, in benchmarks/.
+*/
+public class ThroughputBench {
+
+    public static void main(String[] args) throws InterruptedException {
+        final int games = (args.length > 0) ? Integer.parseInt(args[0]) : 64;
+        int maxThreads = (args.length > 1) ? Integer.parseInt(args[1])
+                                           : Runtime.getRuntime().availableProcessors();
+        final long seed = (args.length > 2) ? Long.parseLong(args[2]) : 1;
+        final int maxPieces = (args.length > 3) ? Integer.parseInt(args[3]) : 5000;
+
+        play(games, 1, seed, maxPieces); // warm up
+
+        row("threads", "games", "pieces", "seconds", "pieces/s", "games/s",
+                  "alloc MB/s", "gc ms", "gc count");
+        for (int threads = 1; ; threads *= 2) {
+            if (threads > maxThreads) threads = maxThreads;
+
+            long gcMillis = gcMillis();
+            long gcCount = gcCount();
+            long start = System.nanoTime();
+            long pieces = play(games, threads, seed, maxPieces);
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            row(threads, games, pieces, seconds, pieces / seconds, games / seconds,
+                      (lastAllocated < 0) ? Double.NaN : lastAllocated / seconds / 1e6,
+                      gcMillis() - gcMillis, gcCount() - gcCount);
+            if (threads == maxThreads) break;
+        }
+    }
+
+
+    // bytes allocated by the threads of the last play(), -1 if
+    // the JVM does not count them
+    private static long lastAllocated;
+
+
+    /*
+     Plays the games on the given number of threads and returns the
+     total number of pieces played. Each thread counts its own
+     allocation before it ends, since a finished thread's count
+     can no longer be read.
+    */
+    private static long play(final int games, int threads, final long seed, final int maxPieces)
+            throws InterruptedException {
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicLong pieces = new AtomicLong();
+        final AtomicLong allocated = new AtomicLong();
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(new Runnable() {
+                public void run() {
+                    long bytes = allocatedBytes();
+                    JBrainNoGraphics game = new JBrainNoGraphics(0, 0, new ErikWurmanSinaBakhtiariBrain(), 0) {
+                        public Piece pickNextPiece() {
+                            if (gamePieces >= maxPieces) stopGame();
+                            return super.pickNextPiece();
+                        }
+                    };
+                    long played = 0;
+                    for (int g = next.getAndIncrement(); g < games; g = next.getAndIncrement()) {
+                        game.setSeed(seed + g);
+                        game.startGame();
+                        played += game.getPieces();
+                    }
+                    pieces.addAndGet(played);
+                    allocated.addAndGet((bytes < 0) ? -1 : allocatedBytes() - bytes);
+                }
+            }, "ThroughputBench-" + t);
+            workers[t].start();
+        }
+        for (Thread w : workers) {
+            w.join();
+        }
+        lastAllocated = (allocated.get() < 0) ? -1 : allocated.get();
+        return pieces.get();
+    }
+
+
+    /*
+     Bytes allocated so far by the calling thread, or -1 if the JVM
+     does not count them.
+    */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean t = (com.sun.management.ThreadMXBean) threads;
+            if (t.isThreadAllocatedMemorySupported() && t.isThreadAllocatedMemoryEnabled()) {
+                return t.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+
+    /*
+     Milliseconds spent in garbage collection so far, all collectors.
+    */
+    private static long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(gc.getCollectionTime(), 0);
+        }
+        return total;
+    }
+
+
+    /*
+     Number of garbage collections so far, all collectors.
+    */
+    private static long gcCount() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(gc.getCollectionCount(), 0);
+        }
+        return total;
+    }
+
+
+    /*
+     Prints the fields tab separated on one line.
+    */
+    private static void row(Object... fields) {
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) line.append('\t');
+            Object f = fields[i];
+            if (f instanceof Double) {
+                double d = (Double) f;
+                line.append((d != d) ? "NaN" : String.format(java.util.Locale.ROOT, "%.3f", d));
+            }
+            else {
+                line.append(f);
+            }
+        }
+        System.out.println(line);
+    }
+}
@@ -0,0 +1,13 @@
+// TopMovesBrain.java -- a brain that can rank its plays
+
+public interface TopMovesBrain extends Brain {
+ /*
+  Fills out[0..n) with the n best plays of the piece, best first,
+  as PackedMove longs (piece id, rotation, x, y and score), and
+  returns n -- at most k, fewer if there are not that many plays,
+  0 if there are none. out must have room for k moves.
+  Nothing is allocated, so a search can ask for ranked plays on
+  every node.
+ */
+ public int topMoves(Board board, Piece piece, int limitHeight, long[] out, int k);
+}
@@ -0,0 +1,86 @@
+/*
+ A fixed size hash table from (board hash, search depth) to a score,
+ so a search that reaches the same board by different orders of
+ plays only scores it once.
+
+ Stored in parallel primitive arrays with no per-entry objects.
+ A slot is simply overwritten when two keys land in it, so the
+ table never fills up -- it just forgets. Keys are the 64 bit
+ Board.hashKey(), so two different boards sharing an entry is
+ possible but vanishingly rare.
+*/
+public final class TranspositionTable {
+    private long[] keys;
+    private int[] depths;     // depth+1, 0 marks an empty slot
+    private double[] values;
+    private int mask;
+
+    private long hits;
+    private long misses;
+
+
+    /*
+     Creates a table with room for 2^bits entries.
+    */
+    public TranspositionTable(int bits) {
+        int size = 1 << bits;
+        keys = new long[size];
+        depths = new int[size];
+        values = new double[size];
+        mask = size - 1;
+    }
+
+
+    /*
+     Returns the stored score for the board hash at this depth,
+     or Double.NaN if there is none.
+    */
+    public double get(long hash, int depth) {
+        int i = slot(hash, depth);
+        if (depths[i] == depth + 1 && keys[i] == hash) {
+            hits++;
+            return values[i];
+        }
+        misses++;
+        return Double.NaN;
+    }
+
+
+    /*
+     Remembers the score for the board hash at this depth.
+    */
+    public void put(long hash, int depth, double value) {
+        int i = slot(hash, depth);
+        keys[i] = hash;
+        depths[i] = depth + 1;
+        values[i] = value;
+    }
+
+
+    /*
+     Forgets everything, e.g. when the scores stored would no
+     longer be right for the caller.
+    */
+    public void clear() {
+        for (int i = 0; i < depths.length; i++) {
+            depths[i] = 0;
+        }
+        hits = 0;
+        misses = 0;
+    }
+
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+
+    private int slot(long hash, int depth) {
+        long h = hash + depth * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,116 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import org.junit.jupiter.api.Test;
+
+/*
+ Checks that Board keeps its column bit masks in step with the
+ grid, on boards captured from real games: after every legal play
+ of every piece is placed, has its rows cleared and is undone, and
+ along games played on from them with commit().
+*/
+public class BoardTest {
+    private static final long SEED = 1;
+
+
+    @Test
+    public void columnBitsFollowPlaceClearAndUndo() {
+        int cleared = 0;
+        for (Board board : boards()) {
+            Board before = new Board(board.getWidth(), board.getHeight());
+            before.copyFrom(board);
+            for (Piece piece : Piece.getPieces()) {
+                Piece current = piece;
+                do {
+                    for (int x = 0; x + current.getWidth() <= board.getWidth(); x++) {
+                        int y = board.dropHeight(current, x);
+                        if (y + current.getHeight() > board.getHeight()) continue;
+                        int result = board.place(current, x, y);
+                        checkBits(board, "place");
+                        if (result == Board.PLACE_ROW_FILLED) {
+                            board.clearRows();
+                            checkBits(board, "clearRows");
+                            cleared++;
+                        }
+                        board.undo();
+                        checkBits(board, "undo");
+                        checkSame(before, board);
+                    }
+                    current = current.nextRotation();
+                } while (current != piece);
+            }
+        }
+        if (cleared == 0) fail("No play cleared a row, so clearRows() went unchecked");
+    }
+
+
+    @Test
+    public void columnBitsFollowCommittedPlays() {
+        LameBrain brain = new LameBrain();
+        Brain.Move move = new Brain.Move();
+        Piece[] pieces = Piece.getPieces();
+        java.util.Random random = new java.util.Random(SEED);
+        Board[] boards = boards();
+        for (int b = 0; b < boards.length; b += 10) {
+            Board board = new Board(boards[b].getWidth(), boards[b].getHeight());
+            board.copyFrom(boards[b]);
+            for (int i = 0; i < 50; i++) {
+                Piece piece = pieces[random.nextInt(pieces.length)];
+                if (brain.bestMove(board, piece, JTetrisTrain.HEIGHT, move) == null) break;
+                if (board.place(move.piece, move.x, move.y) == Board.PLACE_ROW_FILLED) {
+                    board.clearRows();
+                }
+                board.commit();
+                checkBits(board, "commit");
+            }
+        }
+    }
+
+
+    /*
+     Boards from EWSB and LameBrain games, the low and tidy ones
+     and the tall and holey ones.
+    */
+    static Board[] boards() {
+        Board[] good = GameStates.capture(new ErikWurmanSinaBakhtiariBrain(), SEED, 300, 7, 2000);
+        Board[] lame = GameStates.capture(new LameBrain(), SEED, 300, 3, 2000);
+        Board[] all = new Board[good.length + lame.length];
+        System.arraycopy(good, 0, all, 0, good.length);
+        System.arraycopy(lame, 0, all, good.length, lame.length);
+        return all;
+    }
+
+
+    /*
+     Fails unless bit y of every column mask is getGrid(x, y), and
+     the column height is just above the top bit.
+    */
+    static void checkBits(Board board, String after) {
+        for (int x = 0; x < board.getWidth(); x++) {
+            long bits = board.getColumnBits(x);
+            for (int y = 0; y < board.getHeight(); y++) {
+                if (((bits >>> y) & 1) != (board.getGrid(x, y) ? 1 : 0)) {
+                    fail("After " + after + ", column " + x + " bit " + y + " is not the grid\n"
+                         + GameReplay.toText(board));
+                }
+            }
+            if (board.getHeight() < 64) {
+                assertEquals(0, bits >>> board.getHeight(), "bits above the board in column " + x);
+            }
+            assertEquals(64 - Long.numberOfLeadingZeros(bits), board.getColumnHeight(x),
+                         "height of column " + x + " after " + after);
+        }
+    }
+
+
+    static void checkSame(Board expected, Board actual) {
+        for (int x = 0; x < expected.getWidth(); x++) {
+            for (int y = 0; y < expected.getHeight(); y++) {
+                if (expected.getGrid(x, y) != actual.getGrid(x, y)) {
+                    fail("Square " + x + "," + y + " differs\n" + GameReplay.toText(expected)
+                         + GameReplay.toText(actual));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+/*
+ Checks ErikWurmanSinaBakhtiariBrain's fast paths -- the single
+ pass rateBoard(), the cutoff rateBoard(board, cutoff), and the
+ incremental rateDrop() behind bestMove() and topMoves() -- against
+ the plain way: every play placed and the features counted square
+ by square off getGrid(), as a LameBrain loop does it.
+
+ Two sets of weights are tried, the default ones and one with
+ negative weights, so the cutoff's bounds are tried both ways.
+*/
+public class ErikWurmanSinaBakhtiariBrainTest {
+    private static final double[][] WEIGHTS = {
+        {.1, -1.5, 2.8, 2, 7.5},
+        {1.3, 0.7, -0.4, 3.1, -2.2},
+    };
+
+
+    /*
+     The EWSB score of a board, worked out the long way.
+    */
+    static final class Reference extends LameBrain {
+        final double mh, tw, h, r, ah;
+
+        Reference(double[] w) {
+            mh = w[0];
+            tw = w[1];
+            h = w[2];
+            r = w[3];
+            ah = w[4];
+        }
+
+        public double rateBoard(Board board) {
+            final int width = board.getWidth();
+            int touching = 0;
+            int holes = 0;
+            int roughness = 0;
+            int height = 0;
+            for (int x = 0; x < width; x++) {
+                int top = 0;
+                for (int y = 0; y < board.getHeight(); y++) {
+                    if (board.getGrid(x, y)) {
+                        top = y + 1;
+                        if (x == 0 || x == width - 1) touching++;
+                    }
+                }
+                for (int y = 0; y < top; y++) {
+                    if (!board.getGrid(x, y)) holes++;
+                }
+                height += top;
+                if (x > 0) roughness += Math.abs(top - board.getColumnHeight(x - 1));
+            }
+            // summed in the same order as EWSB, so the doubles agree exactly
+            return (mh*board.getMaxHeight() + tw*touching + h*holes + r*roughness + ah*height);
+        }
+    }
+
+
+    static ErikWurmanSinaBakhtiariBrain brain(double[] w) {
+        return new ErikWurmanSinaBakhtiariBrain(w[0], w[1], w[2], w[3], w[4]);
+    }
+
+
+    @Test
+    public void bestMoveMatchesTheReferenceLoop() {
+        Board[] boards = BoardTest.boards();
+        for (double[] w : WEIGHTS) {
+            ErikWurmanSinaBakhtiariBrain brain = brain(w);
+            Reference reference = new Reference(w);
+            Brain.Move move = new Brain.Move();
+            Brain.Move expected = new Brain.Move();
+            for (Board board : boards) {
+                for (Piece piece : Piece.getPieces()) {
+                    Brain.Move want = reference.bestMove(board, piece, JTetrisTrain.HEIGHT, expected);
+                    Brain.Move got = brain.bestMove(board, piece, JTetrisTrain.HEIGHT, move);
+                    if (want == null) {
+                        assertNull(got);
+                        continue;
+                    }
+                    String where = "\n" + GameReplay.toText(board);
+                    assertEquals(want.score, got.score, "score" + where);
+                    assertSame(want.piece, got.piece, "piece" + where);
+                    assertEquals(want.x, got.x, "x" + where);
+                    assertEquals(want.y, got.y, "y" + where);
+                }
+            }
+        }
+    }
+
+
+    @Test
+    public void rateBoardMatchesTheReference() {
+        Board[] boards = BoardTest.boards();
+        for (double[] w : WEIGHTS) {
+            ErikWurmanSinaBakhtiariBrain brain = brain(w);
+            Reference reference = new Reference(w);
+            for (Board board : boards) {
+                for (Piece piece : Piece.getPieces()) {
+                    Piece current = piece;
+                    do {
+                        for (int x = 0; x + current.getWidth() <= board.getWidth(); x++) {
+                            int y = board.dropHeight(current, x);
+                            if (y + current.getHeight() > board.getHeight()) continue;
+                            if (board.place(current, x, y) == Board.PLACE_ROW_FILLED) board.clearRows();
+                            checkRating(brain, reference, board);
+                            board.undo();
+                        }
+                        current = current.nextRotation();
+                    } while (current != piece);
+                }
+            }
+        }
+    }
+
+
+    private static void checkRating(ErikWurmanSinaBakhtiariBrain brain, Reference reference, Board board) {
+        double exact = reference.rateBoard(board);
+        String where = "\n" + GameReplay.toText(board);
+        assertEquals(exact, brain.rateBoard(board), "rateBoard" + where);
+        double[] cutoffs = {exact, exact - 1, exact + 1, exact / 2, exact * 2, 1e20, -1e20};
+        for (double cutoff : cutoffs) {
+            double rated = brain.rateBoard(board, cutoff);
+            if (exact <= cutoff) {
+                assertEquals(exact, rated, "rateBoard with cutoff " + cutoff + where);
+            }
+            else {
+                assertTrue(rated > cutoff, "rateBoard with cutoff " + cutoff + " gave " + rated + where);
+            }
+        }
+    }
+
+
+    @Test
+    public void topMovesMatchTheReferenceLoop() {
+        Board[] boards = BoardTest.boards();
+        int[] ks = {1, 3, 8, 64};
+        long[] out = new long[64];
+        Placements plays = new Placements();
+        for (double[] w : WEIGHTS) {
+            ErikWurmanSinaBakhtiariBrain brain = brain(w);
+            Reference reference = new Reference(w);
+            for (Board board : boards) {
+                for (Piece piece : Piece.getPieces()) {
+                    // every distinct play, rated the long way, best first
+                    int count = plays.generate(board, piece, JTetrisTrain.HEIGHT, reference);
+                    double[] scores = new double[count];
+                    for (int i = 0; i < count; i++) {
+                        scores[i] = plays.score(i);
+                    }
+                    Arrays.sort(scores);
+
+                    String where = "\n" + GameReplay.toText(board);
+                    for (int k : ks) {
+                        int n = brain.topMoves(board, piece, JTetrisTrain.HEIGHT, out, k);
+                        assertEquals(Math.min(k, count), n, "top " + k + " count" + where);
+                        for (int i = 0; i < n; i++) {
+                            // packed scores are kept as floats
+                            assertEquals((float) scores[i], PackedMove.score(out[i]), "top " + k + " #" + i + where);
+                            Piece p = PackedMove.piece(out[i]);
+                            int x = PackedMove.x(out[i]);
+                            int y = PackedMove.y(out[i]);
+                            assertEquals(y, board.dropHeight(p, x), "top " + k + " #" + i + " y" + where);
+                            if (board.place(p, x, y) == Board.PLACE_ROW_FILLED) board.clearRows();
+                            double rated = reference.rateBoard(board);
+                            board.undo();
+                            assertEquals((float) rated, PackedMove.score(out[i]), "top " + k + " #" + i + " move" + where);
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
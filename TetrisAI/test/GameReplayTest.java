@@ -0,0 +1,125 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.Test;
+
+/*
+ Checks that a game written by GameRecorder plays back with
+ GameReplay to the very board the game ended on, with the same
+ pieces and lines.
+*/
+public class GameReplayTest {
+
+    /*
+     A headless game that keeps a copy of its board, pieces and
+     lines at the end of every game, and stops a game at maxPieces.
+    */
+    static final class Game extends JBrainNoGraphics {
+        final ArrayList<Board> ends = new ArrayList<Board>();
+        final ArrayList<int[]> counts = new ArrayList<int[]>(); // pieces, lines
+        final int maxPieces;
+
+        Game(Brain brain, int maxPieces) {
+            super(0, 0, brain, 0);
+            this.maxPieces = maxPieces;
+        }
+
+        public Piece pickNextPiece() {
+            if (gamePieces >= maxPieces) stopGame();
+            return super.pickNextPiece();
+        }
+
+        public void stopGame() {
+            if (gameOn) {
+                Board end = new Board(board.getWidth(), board.getHeight());
+                end.copyFrom(board);
+                ends.add(end);
+                counts.add(new int[] {gamePieces, gameLines});
+            }
+            super.stopGame();
+        }
+    }
+
+
+    @Test
+    public void recordedGamesReplayToTheSameBoard() throws IOException {
+        // LameBrain loses its games, EWSB's are cut short
+        replay(new Game(new LameBrain(), 5000), 20);
+        replay(new Game(new ErikWurmanSinaBakhtiariBrain(), 1500), 5);
+    }
+
+
+    /*
+     A piece slid in under an overhang does not land where
+     dropHeight() puts it, so its y is written out -- brains seldom
+     play one, so this game is laid out by hand: an O, a flat I
+     resting on it and sticking out over columns 0 and 1, and an O
+     slid in under the I.
+    */
+    @Test
+    public void pieceUnderAnOverhangReplays() throws IOException {
+        Piece[] pieces = Piece.getPieces();
+        Piece o = pieces[5];
+        Piece flat = pieces[0];
+        while (flat.getWidth() != 4) flat = flat.nextRotation();
+
+        Board board = new Board(JTetrisTrain.WIDTH, JTetrisTrain.HEIGHT + JTetrisTrain.TOP_SPACE);
+        GameRecorder.Game recording = new GameRecorder.Game();
+        recording.start(7, board);
+        land(board, recording, o, 2, 0);
+        land(board, recording, flat, 0, 2);
+        assertEquals(3, board.dropHeight(o, 0));
+        land(board, recording, o, 0, 0);
+
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        GameRecorder recorder = new GameRecorder(file, 0);
+        recorder.write(recording);
+        recorder.close();
+        assertEquals(2 * 3 + 1, recording.length, "only the slid in O should take a y byte");
+
+        GameReplay replay = new GameReplay(new ByteArrayInputStream(file.toByteArray()));
+        assertTrue(replay.nextGame());
+        replay.playToEnd();
+        assertEquals(3, replay.getPlayed());
+        assertEquals(0, replay.getLastY());
+        BoardTest.checkSame(board, replay.getBoard());
+    }
+
+
+    private static void land(Board board, GameRecorder.Game recording, Piece piece, int x, int y) {
+        assertEquals(Board.PLACE_OK, board.place(piece, x, y));
+        recording.landed(board, piece, x, y);
+        board.commit();
+    }
+
+
+    private static void replay(Game game, int games) throws IOException {
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        GameRecorder recorder = new GameRecorder(file, 0);
+        game.setRecorder(recorder);
+        for (int g = 0; g < games; g++) {
+            game.setSeed(g + 1);
+            game.startGame();
+        }
+        recorder.close();
+        assertEquals(games, recorder.getGames());
+
+        GameReplay replay = new GameReplay(new ByteArrayInputStream(file.toByteArray()));
+        for (int g = 0; g < games; g++) {
+            assertTrue(replay.nextGame(), "game " + g + " is missing");
+            assertEquals(g + 1, replay.getSeed());
+            replay.playToEnd();
+            int[] counts = game.counts.get(g);
+            assertEquals(counts[0], replay.getPlayed(), "pieces of game " + g);
+            assertEquals(counts[1], replay.getLines(), "lines of game " + g);
+            BoardTest.checkSame(game.ends.get(g), replay.getBoard());
+        }
+        assertFalse(replay.nextGame());
+    }
+}
@@ -0,0 +1,315 @@
+package tetris;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ Micro benchmarks of the Board primitives the brains lean on:
+ place(), undo(), clearRows() clearing 0 to 4 rows, dropHeight()
+ and getGrid().
+
+ They run on boards captured from real games (see GameStates),
+ cycling through many positions and plays so no single board
+ sits in the branch predictor. A brain that plays well seldom
+ clears 3 or 4 rows at once, so the clearing cases are searched
+ for on 20 times as many boards as the others use.
+
+ place() needs a committed board and undo() and clearRows() a
+ placed one, so each of those is timed on a batch of BATCH plays,
+ every one on its own copy of its board: the batch is placed (or
+ put back) around each invocation, outside the timing, and the
+ time is divided over the batch.
+*/
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoardBenchmark {
+    static final int BATCH = 128;
+    static final int STATES = 200; // boards the plain cases run on
+    static final long SEED = 1;
+
+    private static Board[] pool; // STATES * 20 captured boards
+
+
+    /*
+     The captured boards, played once per JVM and shared by every
+     state.
+    */
+    static synchronized Board[] pool() {
+        if (pool == null) {
+            pool = GameStates.capture(new ErikWurmanSinaBakhtiariBrain(), SEED, 20 * STATES, 7, 2000);
+        }
+        return pool;
+    }
+
+
+    /*
+     One play of a piece on a captured board.
+    */
+    static final class Play {
+        final Board board;
+        final Piece piece;
+        final int x;
+        final int y;
+
+        Play(Board board, Piece piece, int x, int y) {
+            this.board = board;
+            this.piece = piece;
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+
+    /*
+     Every legal drop that fills the given number of rows -- on all
+     the boards, or only the first STATES for 0 rows.
+    */
+    static ArrayList<Play> plays(int rows) {
+        Board[] boards = pool();
+        int searched = (rows == 0) ? STATES : boards.length;
+        ArrayList<Play> plays = new ArrayList<Play>();
+        for (int b = 0; b < searched; b++) {
+            Board board = boards[b];
+            for (Piece piece : Piece.getPieces()) {
+                Piece current = piece;
+                do {
+                    for (int x = 0; x + current.getWidth() <= board.getWidth(); x++) {
+                        int y = board.dropHeight(current, x);
+                        if (y + current.getHeight() > board.getHeight()) continue;
+                        board.place(current, x, y);
+                        int full = 0;
+                        for (int row = 0; row < board.getMaxHeight(); row++) {
+                            if (board.getRowWidth(row) == board.getWidth()) full++;
+                        }
+                        board.undo();
+                        if (full == rows) plays.add(new Play(board, current, x, y));
+                    }
+                    current = current.nextRotation();
+                } while (current != piece);
+            }
+        }
+        if (plays.isEmpty()) {
+            throw new IllegalStateException("No play fills " + rows + " rows on the captured boards");
+        }
+        return plays;
+    }
+
+
+    /*
+     BATCH plays taken in turn from a list, each on its own copy of
+     its board, so all of them can be placed at the same time.
+    */
+    static final class Batch {
+        final Board[] boards = new Board[BATCH];
+        final Piece[] pieces = new Piece[BATCH];
+        final int[] xs = new int[BATCH];
+        final int[] ys = new int[BATCH];
+
+        Batch(ArrayList<Play> plays) {
+            for (int i = 0; i < BATCH; i++) {
+                Play p = plays.get(i % plays.size());
+                boards[i] = new Board(p.board.getWidth(), p.board.getHeight());
+                boards[i].copyFrom(p.board);
+                pieces[i] = p.piece;
+                xs[i] = p.x;
+                ys[i] = p.y;
+            }
+        }
+
+        void place() {
+            for (int i = 0; i < BATCH; i++) {
+                boards[i].place(pieces[i], xs[i], ys[i]);
+            }
+        }
+
+        void undo() {
+            for (int i = 0; i < BATCH; i++) {
+                boards[i].undo();
+            }
+        }
+    }
+
+
+    /*
+     Plays that fill no row, on committed boards.
+    */
+    @State(Scope.Thread)
+    public static class Committed {
+        Batch batch;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            batch = new Batch(plays(0));
+        }
+
+        @TearDown(Level.Invocation)
+        public void putBack() {
+            batch.undo();
+        }
+    }
+
+
+    /*
+     The same plays, placed and waiting to be undone.
+    */
+    @State(Scope.Thread)
+    public static class Placed {
+        Batch batch;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            batch = new Batch(plays(0));
+        }
+
+        @Setup(Level.Invocation)
+        public void place() {
+            batch.place();
+        }
+    }
+
+
+    /*
+     Plays that fill the given number of rows, placed and waiting
+     for clearRows().
+    */
+    @State(Scope.Thread)
+    public static class Filled {
+        @Param({"0", "1", "2", "3", "4"})
+        int rows;
+
+        Batch batch;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            batch = new Batch(plays(rows));
+        }
+
+        @Setup(Level.Invocation)
+        public void place() {
+            batch.place();
+        }
+
+        @TearDown(Level.Invocation)
+        public void putBack() {
+            batch.undo();
+        }
+    }
+
+
+    /*
+     Every rotation at every column of the first STATES boards, for
+     dropHeight(), and the boards themselves for getGrid().
+    */
+    @State(Scope.Thread)
+    public static class Columns {
+        Board[] boards;   // for getGrid()
+        int b, x, y;      // the square it reads next
+        Board[] on;       // for dropHeight(): a board, piece and column each
+        Piece[] pieces;
+        int[] xs;
+        int k;            // the one it tries next
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            boards = new Board[STATES];
+            System.arraycopy(pool(), 0, boards, 0, STATES);
+            ArrayList<Play> columns = new ArrayList<Play>();
+            for (Board board : boards) {
+                for (Piece piece : Piece.getPieces()) {
+                    Piece current = piece;
+                    do {
+                        for (int x = 0; x + current.getWidth() <= board.getWidth(); x++) {
+                            columns.add(new Play(board, current, x, 0));
+                        }
+                        current = current.nextRotation();
+                    } while (current != piece);
+                }
+            }
+            on = new Board[columns.size()];
+            pieces = new Piece[columns.size()];
+            xs = new int[columns.size()];
+            for (int i = 0; i < on.length; i++) {
+                Play p = columns.get(i);
+                on[i] = p.board;
+                pieces[i] = p.piece;
+                xs[i] = p.x;
+            }
+        }
+    }
+
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int place(Committed s) {
+        final Batch batch = s.batch;
+        int sum = 0;
+        for (int i = 0; i < BATCH; i++) {
+            sum += batch.boards[i].place(batch.pieces[i], batch.xs[i], batch.ys[i]);
+        }
+        return sum;
+    }
+
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void undo(Placed s) {
+        final Board[] boards = s.batch.boards;
+        for (int i = 0; i < BATCH; i++) {
+            boards[i].undo();
+        }
+    }
+
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int clearRows(Filled s) {
+        final Board[] boards = s.batch.boards;
+        int cleared = 0;
+        for (int i = 0; i < BATCH; i++) {
+            if (boards[i].clearRows()) cleared++;
+        }
+        return cleared;
+    }
+
+
+    @Benchmark
+    public int dropHeight(Columns s) {
+        int k = s.k;
+        int y = s.on[k].dropHeight(s.pieces[k], s.xs[k]);
+        s.k = (k + 1 == s.xs.length) ? 0 : k + 1;
+        return y;
+    }
+
+
+    @Benchmark
+    public boolean getGrid(Columns s) {
+        final Board board = s.boards[s.b];
+        boolean filled = board.getGrid(s.x, s.y);
+        if (++s.y == board.getHeight()) {
+            s.y = 0;
+            if (++s.x == board.getWidth()) {
+                s.x = 0;
+                if (++s.b == s.boards.length) s.b = 0;
+            }
+        }
+        return filled;
+    }
+}
@@ -0,0 +1,192 @@
+package tetris;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ Decision latency benchmarks: how long bestMove() takes for
+ LameBrain, ErikWurmanSinaBakhtiariBrain and the built-in brain
+ of JBrainNoGraphics, as the board fills up.
+
+ Boards are captured from seeded games (see GameStates) and put
+ in buckets by their max height and their number of holes: bucket
+ "12/3" holds the boards 9 to 12 high with 1 to 3 holes, "24/inf"
+ the ones over 16 high with more than 8. Every brain is timed on
+ every bucket with each of the 7 pieces separately, one call at a
+ time, and SampleTime mode reports the percentiles besides the
+ mean -- the p0.99 is the occasional slow move that a mean hides.
+ Each brain is given a reusable Brain.Move the way the game does,
+ so a brain that allocates shows up in -prof gc's
+ gc.alloc.rate.norm (bytes per call).
+
+ The boards come from EWSB, LameBrain and BadBrain games, a round
+ of 4000 boards each at a time, until the bucket holds PER_BUCKET
+ boards or ROUNDS rounds are played. The 16 buckets in the @Param
+ below all fill up. The other 4 are left out: tall boards with
+ few holes are all but unheard of ("16/0" gets 11 boards in all
+ the rounds, "24/0" 1 and "24/3" 5), and so is a low board with
+ many holes ("4/inf" gets none). A bucket asked for with -p that
+ comes out short is run on what there is, and one that comes out
+ empty stops with a message.
+
+ Every combination is a fork of its own, so narrow the run down
+ with -p, e.g.
+
+   java -jar benchmarks/target/benchmarks.jar BrainBenchmark \
+       -p brain=ErikWurmanSinaBakhtiariBrain -p piece=I -prof gc
+*/
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BrainBenchmark {
+    // bucket bounds, as the bucket @Param names them
+    private static final int[] HEIGHTS = {4, 8, 12, 16, JTetrisTrain.HEIGHT + JTetrisTrain.TOP_SPACE};
+    private static final int[] HOLES = {0, 3, 8, Integer.MAX_VALUE};
+    private static final String[] NAMES = {"I", "L", "J", "S", "Z", "O", "T"};
+    private static final int PER_BUCKET = 64;
+    private static final int ROUNDS = 10;
+    private static final long SEED = 1;
+
+    @Param({"LameBrain", "ErikWurmanSinaBakhtiariBrain", "JBrainNoGraphics"})
+    String brain;
+
+    // max height/holes; 24 is the whole board, HEIGHT + TOP_SPACE
+    @Param({"4/0", "4/3", "4/8",
+            "8/0", "8/3", "8/8", "8/inf",
+            "12/0", "12/3", "12/8", "12/inf",
+            "16/3", "16/8", "16/inf",
+            "24/8", "24/inf"})
+    String bucket;
+
+    @Param({"I", "L", "J", "S", "Z", "O", "T"})
+    String piece;
+
+    private Brain player;
+    private Board[] boards;
+    private Piece toPlay;
+    private Brain.Move move = new Brain.Move();
+    private int next;
+
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        if (brain.equals("LameBrain")) {
+            player = new LameBrain();
+        }
+        else if (brain.equals("ErikWurmanSinaBakhtiariBrain")) {
+            player = new ErikWurmanSinaBakhtiariBrain();
+        }
+        else if (brain.equals("JBrainNoGraphics")) {
+            player = new JBrainNoGraphics(0, 0, new LameBrain(), 0);
+        }
+        else {
+            throw new IllegalArgumentException("Unknown brain " + brain);
+        }
+        toPlay = Piece.getPieces()[indexOf(NAMES, piece)];
+
+        int slash = bucket.indexOf('/');
+        int h = (slash < 0) ? -1 : indexOf(HEIGHTS, bucket.substring(0, slash));
+        int o = (slash < 0) ? -1 : indexOf(HOLES, bucket.substring(slash + 1));
+        if (h < 0 || o < 0) {
+            throw new IllegalArgumentException("Not a bucket: " + bucket);
+        }
+
+        boards = fill(h, o);
+        if (boards.length == 0) {
+            throw new IllegalStateException("No captured board in bucket " + bucket
+                + ", leave it out of -p bucket");
+        }
+        if (boards.length < PER_BUCKET) {
+            System.out.println("Bucket " + bucket + " has only " + boards.length + " boards");
+        }
+    }
+
+
+    @Benchmark
+    public Brain.Move bestMove() {
+        Board board = boards[next];
+        if (++next == boards.length) next = 0;
+        return player.bestMove(board, toPlay, JTetrisTrain.HEIGHT, move);
+    }
+
+
+    /*
+     Returns up to PER_BUCKET boards of the height x holes bucket
+     (h, o), capturing a round from every brain at a time. A brain
+     that plays well keeps the board low, so the high and holey
+     boards come from the weaker ones.
+    */
+    static Board[] fill(int h, int o) {
+        ArrayList<Board> found = new ArrayList<Board>();
+        for (int round = 0; round < ROUNDS && found.size() < PER_BUCKET; round++) {
+            long seed = SEED + 1000 * round;
+            collect(new Board[][] {
+                GameStates.capture(new ErikWurmanSinaBakhtiariBrain(), seed, 4000, 5, 2000),
+                GameStates.capture(new LameBrain(), seed, 4000, 5, 2000),
+                GameStates.capture(new BadBrain(), seed, 4000, 5, 2000),
+            }, h, o, found);
+        }
+        return found.toArray(new Board[0]);
+    }
+
+
+    /*
+     Adds the boards of bucket (h, o) to found, up to PER_BUCKET,
+     taken in turn from every list so each brain's games are
+     represented.
+    */
+    private static void collect(Board[][] lists, int h, int o, ArrayList<Board> found) {
+        int longest = 0;
+        for (Board[] list : lists) {
+            longest = Math.max(longest, list.length);
+        }
+        for (int i = 0; i < longest && found.size() < PER_BUCKET; i++) {
+            for (Board[] list : lists) {
+                if (i >= list.length || found.size() == PER_BUCKET) continue;
+                Board board = list[i];
+                int bh = 0;
+                while (board.getMaxHeight() > HEIGHTS[bh]) bh++;
+                int bo = 0;
+                int n = GameStates.holes(board);
+                while (n > HOLES[bo]) bo++;
+                if (bh == h && bo == o) found.add(board);
+            }
+        }
+    }
+
+
+    private static int indexOf(String[] names, String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) return i;
+        }
+        throw new IllegalArgumentException("Unknown piece " + name);
+    }
+
+
+    /*
+     The index of the bound written as text ("inf" for none), or -1.
+    */
+    private static int indexOf(int[] bounds, String text) {
+        for (int i = 0; i < bounds.length; i++) {
+            String name = (bounds[i] == Integer.MAX_VALUE) ? "inf" : String.valueOf(bounds[i]);
+            if (name.equals(text)) return i;
+        }
+        return -1;
+    }
+}